@@ -0,0 +1,66 @@
+package com.bounce;
+
+/**
+ * Stores the state of every sphere in the world as a structure of arrays: one contiguous block of primitives per field.
+ * The physics loop walks these blocks in order instead of going through the properties of every Sphere node,
+ * which is much friendlier to the CPU cache. The nodes are only ever written from here.
+ * Which backend is used can be chosen on launch with -Dbounce.store=heap|offheap (heap by default).
+ */
+public interface BodyStore {
+
+    /**
+     * @return how many spheres fit in the store before it has to grow
+     */
+    int capacity();
+
+    /**
+     * Make room for at least a given amount of spheres, keeping the state of the ones already stored
+     * @param capacity amount of spheres the store must be able to hold
+     */
+    void grow(int capacity);
+
+    /**
+     * Copy the whole state of one sphere over another
+     * @param from index of the sphere to copy
+     * @param to index to copy it to
+     */
+    void move(int from, int to);
+
+    // Getters
+    double getX(int i);
+
+    double getY(int i);
+
+    double getVX(int i);
+
+    double getVY(int i);
+
+    double getRadius(int i);
+
+    int getColour(int i);
+
+    // Setters
+    void setX(int i, double x);
+
+    void setY(int i, double y);
+
+    void setVX(int i, double vx);
+
+    void setVY(int i, double vy);
+
+    void setRadius(int i, double radius);
+
+    void setColour(int i, int colour);
+
+    /**
+     * Create the store matching a given name
+     * @param name "heap" or "offheap". Anything else falls back to the heap
+     * @return the store
+     */
+    static BodyStore fromName(String name) {
+        if ("offheap".equalsIgnoreCase(name)) {
+            return new OffHeapBodyStore();
+        }
+        return new HeapBodyStore();
+    }
+}
@@ -0,0 +1,52 @@
+package com.bounce;
+
+/**
+ * Finds the pairs of spheres that are close enough to possibly be colliding.
+ * The SimulationWorld runs the (more expensive) narrowphase test only on the pairs reported here.
+ * Which implementation is used can be chosen on launch with -Dbounce.broadphase=grid|sap|brute (grid by default).
+ */
+public interface Broadphase {
+
+    /**
+     * Collect every candidate pair of spheres. Each unordered pair must be reported at most once, with the lower index first.
+     * A pair must be reported whenever the distance between the centres is at most the sum of the radii plus the margin.
+     * @param x centre of each sphere on the X-axis
+     * @param y centre of each sphere on the Y-axis
+     * @param store state of every sphere, for the radii
+     * @param margin extra distance, in pixels, two spheres may be apart and still be reported. Covers how far spheres travel during a step
+     * @param count amount of spheres in the arrays
+     * @param out list the candidate pairs are appended to
+     */
+    void findPairs(double[] x, double[] y, BodyStore store, double margin, int count, PairList out);
+
+    /**
+     * Called whenever the world is cleared, as the indices of any new spheres will start over.
+     * Implementations that keep state between frames should drop it here.
+     */
+    default void reset() {
+    }
+
+    /**
+     * Called whenever a sphere is deleted from the world, which moves the last sphere into its index instead of shifting every following one down.
+     * Implementations that keep state between frames can patch it up here rather than dropping it. By default, they are reset
+     * @param index index of the deleted sphere, which the last sphere now takes
+     * @param last index the last sphere had before
+     */
+    default void removed(int index, int last) {
+        reset();
+    }
+
+    /**
+     * Create the broadphase matching a given name
+     * @param name "grid", "sap" or "brute". Anything else falls back to the grid
+     * @return the broadphase
+     */
+    static Broadphase fromName(String name) {
+        if ("sap".equalsIgnoreCase(name)) {
+            return new SweepAndPrune();
+        } else if ("brute".equalsIgnoreCase(name)) {
+            return new BruteForceBroadphase();
+        }
+        return new SpatialHashGrid();
+    }
+}
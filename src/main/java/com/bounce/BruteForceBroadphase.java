@@ -0,0 +1,17 @@
+package com.bounce;
+
+/**
+ * Reports every pair of spheres as a candidate, which is how collisions were handled before there was a broadphase.
+ * O(n²); only kept around as a baseline to compare the other broadphases against.
+ */
+public class BruteForceBroadphase implements Broadphase {
+
+    @Override
+    public void findPairs(double[] x, double[] y, BodyStore store, double margin, int count, PairList out) {
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                out.add(i, j);
+            }
+        }
+    }
+}
@@ -21,10 +21,12 @@ public class Canvas extends Application {
 
     @Override
     public void start(Stage stage) throws IOException {
+        StartupTimeline.mark("FX toolkit started");
         // Create the scene and link it with it's corresponding controller
         FXMLLoader fxmlLoader = new FXMLLoader(Canvas.class.getResource("canvas.fxml"));
         // Not adding anti aliasing because it glitches out
         Scene canvas = new Scene(fxmlLoader.load());
+        StartupTimeline.mark("scene loaded");
         // Link canvas scene to css stylesheet
         canvas.getStylesheets().add(Objects.requireNonNull(getClass().getResource("/com/bounce/styles.css")).toExternalForm());
         // Non-resizable and maximized window
@@ -46,6 +48,7 @@ public class Canvas extends Application {
         // Show the scene
         stage.setScene(canvas);
         stage.show();
+        StartupTimeline.mark("window shown");
     }
 
     public static void main(String[] args) {
@@ -1,6 +1,5 @@
 package com.bounce;
 
-import javafx.animation.AnimationTimer;
 import javafx.animation.TranslateTransition;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
@@ -20,7 +19,6 @@ import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.*;
 import javafx.scene.shape.Line;
-import javafx.scene.shape.Sphere;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.scene.text.Text;
@@ -32,9 +30,9 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.Objects;
+import java.util.Random;
 import java.util.ResourceBundle;
 import java.awt.Desktop;
 
@@ -46,27 +44,38 @@ public class CanvasController implements Initializable {
     // Root pane
     @FXML private AnchorPane canvas;
 
+    // Smallest and largest sphere radius the size slider allows. The largest one also sizes the collision broadphase grid
+    public static final double MIN_SPHERE_RADIUS = 10.0;
+    public static final double MAX_SPHERE_RADIUS = 100.0;
+    /* Most spheres the canvas holds, bulk generation included. Every sphere takes room in the world's arrays and buffers,
+    so amounts far past what the simulation can keep up with would only run out of memory on the FX thread */
+    public static final int MAX_SPHERES = 2_000_000;
+
     // Transitions and boolean for toggling the control panel's visibility
     private TranslateTransition controlPanelVisible;
     private TranslateTransition controlPanelInvisible;
     private boolean controlPanelToggle = false;
 
-    // Variable to store the database connection
-    private static Connection connection = Database.getConnection();
 
     // Session counters to keep track of events for statistics tab
     private int sessionSphereCount = 0;
     private int sphereCollisionCount = 0;
     private int wallCollisionCount = 0;
-    // Global counters to keep track of events for statistics tab
-    private int globalSphereCount = 0;
-    private int globalSphereCollisionCount = 0;
-    private int globalWallCollisionCount = 0;
-
-    // ArrayLists for sphere, thread and animation manipulation down the line
-    ArrayList<Sphere> sphereList = new ArrayList<>();
-    ArrayList<Thread> threadList = new ArrayList<>();
-    ArrayList<AnimationTimer> animationList = new ArrayList<>();
+    // Global counters to keep track of events for statistics tab, less the session counters (see StatsRepository.Snapshot). -1 if unavailable
+    private long globalSphereCount = 0;
+    private long globalSphereCollisionCount = 0;
+    private long globalWallCollisionCount = 0;
+    // Whether the global values have arrived from the database yet. Until then, the Stats tab shows a placeholder
+    private boolean globalValuesRetrieved = false;
+
+    /* Every sphere on the canvas, in the same order as in the world.
+    Only kept in line by the world, on the FX thread, once it has applied a spawn, delete or clear.
+    There used to be lists of threads and animations too, but spheres no longer have either of their own */
+    ArrayList<NewSphere> sphereList = new ArrayList<>();
+    // World that owns and steps every sphere. Spheres are spawned, deleted and cleared by submitting commands to it
+    private final SimulationWorld world = new SimulationWorld();
+    // Toggle for collision sounds, kept so that the world can check it without looking it up in the scene
+    private ToggleButton soundOn;
 
     // Getters and setters to use in conjunction with the "Bridge" class
     // Getters
@@ -86,16 +95,16 @@ public class CanvasController implements Initializable {
         return wallCollisionCount;
     }
 
-    public ArrayList<Sphere> getSphereList() {
+    public ArrayList<NewSphere> getSphereList() {
         return sphereList;
     }
 
-    public ArrayList<Thread> getThreadList() {
-        return threadList;
+    public SimulationWorld getWorld() {
+        return world;
     }
 
-    public ArrayList<AnimationTimer> getAnimationList() {
-        return animationList;
+    public boolean isSoundOn() {
+        return soundOn != null && soundOn.isSelected();
     }
     // Setters
     public void setSphereCollisionCount(int sphereCollisionCount) {
@@ -303,9 +312,11 @@ public class CanvasController implements Initializable {
         HBox newSphereSectionB = new HBox();
         // Third row of the container
         HBox newSphereSectionC = new HBox();
+        // Fourth row of the container
+        HBox newSphereSectionD = new HBox();
 
         customizeBasicHBox(null, Pos.CENTER, 60.0, 600.0, newSphereSectionA, newSphereSectionB);
-        customizeBasicHBox(null, Pos.CENTER, 40.0, 600.0, newSphereSectionC);
+        customizeBasicHBox(null, Pos.CENTER, 40.0, 600.0, newSphereSectionC, newSphereSectionD);
 
         /* ----------------------SECTION A---------------------- */
         // First half of the first row
@@ -414,8 +425,8 @@ public class CanvasController implements Initializable {
         Slider sizeSlider = new Slider();
         sizeSlider.setId("size");
         sizeSlider.setPrefWidth(210.0);
-        sizeSlider.setMin(10.0);
-        sizeSlider.setMax(100.0);
+        sizeSlider.setMin(MIN_SPHERE_RADIUS);
+        sizeSlider.setMax(MAX_SPHERE_RADIUS);
         sizeSlider.setShowTickLabels(true);
         sizeSlider.setShowTickMarks(true);
         sizeSlider.setValue(25.0);
@@ -524,22 +535,9 @@ public class CanvasController implements Initializable {
             alert.showAndWait();
 
             if (alert.getResult() == ButtonType.YES) {
-                // Iterate through all animations; stop all of them
-                for (AnimationTimer animationTimer : animationList) {
-                    animationTimer.stop();
-                }
-                /* Iterate through Sphere threads; interrupt all of them.
-                stop() is deprecated, but interrupting them should free up resources
-                once the garbage collector gets to it */
-                for (Thread thread : threadList) {
-                    thread.interrupt();
-                }
-                // Remove all instances of "Sphere" nodes from the canvas
-                canvas.getChildren().removeIf(node -> node instanceof Sphere);
-                // Clear all the ArrayLists
-                threadList.clear();
-                animationList.clear();
-                sphereList.clear();
+                /* Remove every sphere from the world at once, rather than deleting each individually.
+                Once applied, this also swaps out the renderer's whole layer and empties the sphere list */
+                world.clear();
             }
         });
 
@@ -573,13 +571,11 @@ public class CanvasController implements Initializable {
         generateSphere.setMnemonicParsing(false);
         generateSphere.setPrefWidth(120.0);
         generateSphere.setOnAction(actionEvent -> {
-            // Create a new thread and start it
-            NewSphere sphere = new NewSphere();
-            sphere.start();
-            //Add thread to threadList
-            Bridge.getCanvasController().getThreadList().add(sphere);
+            // Create a new sphere with the values in the fields as they are right now, and spawn it
+            world.spawn(new NewSphere(SpawnSpec.fromControls(xPosField, yPosField, sizeSlider, xSpinner, ySpinner, colorPicker)));
             // Increment the session sphere generation count by one
             sessionSphereCount += 1;
+            StatsFlusher.record(1, 0, 0);
         });
         // Add both buttons and the spacing region to the row
         sectionCButtons.getChildren().addAll(clear, spacingRegionA, resetValues, spacingRegionB, generateSphere);
@@ -587,14 +583,117 @@ public class CanvasController implements Initializable {
         newSphereSectionC.getChildren().add(sectionCButtons);
         /* ----------------------SECTION C---------------------- */
 
-        // Add all three sections (rows) to the newSphere outer container
-        newSphereContainer.getChildren().addAll(newSphereSectionA, newSphereSectionB, newSphereSectionC);
+        /* ----------------------SECTION D---------------------- */
+        // Whole of the fourth row
+        HBox sectionDBulk = new HBox();
+        sectionDBulk.setPrefSize(600.0,40.0);
+        sectionDBulk.setSpacing(10.0);
+        sectionDBulk.setAlignment(Pos.CENTER);
+
+        // Label for the bulk generation nodes
+        Label bulkLabel = new Label();
+        bulkLabel.setText("Bulk");
+
+        // Amount of spheres to generate at once
+        TextField bulkAmountField = new TextField();
+        bulkAmountField.setPromptText("Amount");
+        bulkAmountField.setPrefSize(90.0,25.0);
+        bulkAmountField.setId("bulkAmount");
+        // Warning label for amounts that do not fit, empty otherwise
+        Label bulkWarning = new Label();
+        bulkAmountField.textProperty().addListener((observableValue, oldValue, newValue) -> {
+            if (!newValue.matches("\\d*")) {
+                bulkAmountField.setText(newValue.replaceAll("[^\\d]", ""));
+            }
+            bulkWarning.setText("");
+        });
+
+        // How the spheres are spread over the canvas
+        ComboBox<SpherePlacement.Pattern> bulkPattern = new ComboBox<>(FXCollections.observableArrayList(SpherePlacement.Pattern.values()));
+        bulkPattern.setId("bulkPattern");
+        bulkPattern.setPrefWidth(110.0);
+        bulkPattern.setValue(SpherePlacement.Pattern.POISSON);
+
+        /* Button to generate many spheres at once, all with the size, speed and direction, and colour in the fields above.
+        The position fields are ignored; the spheres are spread according to the chosen pattern */
+        Button generateMany = new Button();
+        generateMany.setText("Generate Many");
+        generateMany.setId("generateMany");
+        generateMany.setMnemonicParsing(false);
+        generateMany.setPrefWidth(120.0);
+        generateMany.setOnAction(actionEvent -> {
+            String text = bulkAmountField.getText();
+            if (text.isEmpty()) {
+                return;
+            }
+            // Digits only, but possibly more than even a long holds
+            int room = MAX_SPHERES - sphereList.size();
+            if (text.length() > String.valueOf(MAX_SPHERES).length() || Long.parseLong(text) > room) {
+                bulkWarning.setText("At most " + room + " more");
+                return;
+            }
+            generateBulk(Integer.parseInt(text), bulkPattern.getValue(), SpawnSpec.fromControls(xPosField, yPosField, sizeSlider, xSpinner, ySpinner, colorPicker));
+        });
+
+        sectionDBulk.getChildren().addAll(bulkLabel, bulkAmountField, bulkPattern, generateMany, bulkWarning);
+        newSphereSectionD.getChildren().add(sectionDBulk);
+        /* ----------------------SECTION D---------------------- */
+
+        // Add all four sections (rows) to the newSphere outer container
+        newSphereContainer.getChildren().addAll(newSphereSectionA, newSphereSectionB, newSphereSectionC, newSphereSectionD);
+        // Four rows do not fit the control panel, so the tab scrolls like the Options tab
+        ScrollPane newSphereContent = new ScrollPane();
+        newSphereContent.setContent(newSphereContainer);
+        newSphereContent.setHbarPolicy(ScrollPane.ScrollBarPolicy.NEVER);
+        newSphereContent.setPrefSize(600.0, 180.0);
         // Set content tab to the outer container
-        newSphere.setContent(newSphereContainer);
+        newSphere.setContent(newSphereContent);
         return newSphere;
         /* ===================NEW SPHERE END=================== */
     }
 
+    /**
+     * Generate many spheres of the same size and colour at once.
+     * Positions are all found up front, and the spheres are spawned with a single command,
+     * so that they all appear on the same pulse.
+     * @param amount how many spheres to generate. Fewer are generated if the pattern runs out of room on the canvas,
+     *               and none if the canvas would end up with more than MAX_SPHERES
+     * @param pattern how the spheres are spread over the canvas
+     * @param spec size, speed and direction, and colour of every sphere. Its position is ignored
+     */
+    public void generateBulk(int amount, SpherePlacement.Pattern pattern, SpawnSpec spec) {
+        if (amount <= 0 || amount > MAX_SPHERES - sphereList.size()) {
+            return;
+        }
+        Random random = world.getRandom();
+
+        // Spheres already on the canvas, where they were last drawn, so that new ones are not placed on top of them
+        SpherePlacement placement = new SpherePlacement(canvas.getLayoutBounds(), random);
+        int existing = world.getDrawnCount();
+        double[] existingX = new double[existing];
+        double[] existingY = new double[existing];
+        double[] existingRadius = new double[existing];
+        world.copyDrawn(existingX, existingY, existingRadius);
+        placement.setObstacles(existingX, existingY, existingRadius, existing);
+
+        double radius = spec.getRadius();
+        double[] positions = placement.place(pattern, amount, radius);
+        int placed = positions.length / 2;
+        if (placed == 0) {
+            return;
+        }
+
+        ArrayList<NewSphere> bodies = new ArrayList<>(placed);
+        for (int i = 0; i < placed; i++) {
+            bodies.add(new NewSphere(positions[2 * i], positions[2 * i + 1], radius, spec.getColour(), spec.pickVectorX(random), spec.pickVectorY(random)));
+        }
+        // Everything goes into the world within one step, and on the canvas within the pulse after
+        world.spawn(bodies);
+        // Increment the session sphere generation count by however many made it onto the canvas
+        sessionSphereCount += placed;
+        StatsFlusher.record(placed, 0, 0);
+    }
+
     /**
      * Reset any given amount of lines back to their initial state
      * Resets dimensions and removes lines from canvas
@@ -621,7 +720,7 @@ public class CanvasController implements Initializable {
         options.setText("Options");
         // Container for all options tab nodes
         VBox optionsContainer = new VBox();
-        optionsContainer.setPrefSize(600.0, 180.0);
+        optionsContainer.setPrefSize(600.0, 235.0);
 
         // First row of the container
         HBox optionsSectionA = new HBox();
@@ -629,9 +728,11 @@ public class CanvasController implements Initializable {
         HBox optionsSectionB = new HBox();
         // Third row of the container
         HBox optionsSectionC = new HBox();
+        // Fourth row of the container
+        HBox optionsSectionD = new HBox();
 
         customizeBasicHBox(null, Pos.CENTER_LEFT, 60.0, 600.0, optionsSectionA);
-        customizeBasicHBox(null, Pos.CENTER_LEFT, 55.0, 600.0, optionsSectionB, optionsSectionC);
+        customizeBasicHBox(null, Pos.CENTER_LEFT, 55.0, 600.0, optionsSectionB, optionsSectionC, optionsSectionD);
 
         /* ----------------------SECTION A---------------------- */
         // Transparency on/off toggle
@@ -688,9 +789,9 @@ public class CanvasController implements Initializable {
         Region spacingRegionB = new Region();
         spacingRegionB.setPrefSize(50.0, 55.0);
 
-        // Toggle buttons to turn sound on or off. Off by default because FX MediaPlayer is very laggy.
+        // Toggle buttons to turn sound on or off. Off by default because it can get very loud.
         ToggleGroup toggleGroupSound = new ToggleGroup();
-        ToggleButton soundOn = new ToggleButton();
+        soundOn = new ToggleButton();
         soundOn.setText("ON");
         soundOn.setId("soundOn");
         soundOn.getStyleClass().add("sound");
@@ -714,7 +815,7 @@ public class CanvasController implements Initializable {
         soundLabel.setText("Sound");
         // Warning label for toggle buttons
         Label soundWarning = new Label();
-        soundWarning.setText("Use with caution. Could be laggy and/or loud!");
+        soundWarning.setText("Use with caution. Could be loud!");
 
         HBox.setMargin(soundLabel, new Insets(0, 0, 0, 20.0));
         HBox.setMargin(soundWarning, new Insets(0, 0, 0, 20.0));
@@ -741,14 +842,8 @@ public class CanvasController implements Initializable {
             alert.showAndWait();
 
             if (alert.getResult() == ButtonType.YES) {
-                // Update global values
-                connection = Database.getConnection();
-                if (connection != null) {
-                    Database.updateSphereCount(connection);
-                    Database.updateSphereCollisionCount(connection);
-                    Database.updateWallCollisionCount(connection);
-                }
-                Database.closeConnection();
+                // Send whatever session values were not sent yet to the DB. Gives up after a few seconds if it is slow
+                StatsFlusher.stop();
                 Platform.exit();
             }
         });
@@ -761,12 +856,82 @@ public class CanvasController implements Initializable {
         optionsSectionC.getChildren().addAll(spacingRegionC, exit, exitLabel);
         /* ----------------------SECTION C---------------------- */
 
-        optionsContainer.getChildren().addAll(optionsSectionA, optionsSectionB, optionsSectionC);
-        options.setContent(optionsContainer);
+        /* ----------------------SECTION D---------------------- */
+        // Region to space nodes out
+        Region spacingRegionD = new Region();
+        spacingRegionD.setPrefSize(50.0, 55.0);
+
+        // Toggle buttons to draw spheres as 3D nodes, as one 3D mesh per colour, or all at once onto a single canvas layer
+        ToggleGroup toggleGroupRenderer = new ToggleGroup();
+        ToggleButton rendererNodes = new ToggleButton();
+        rendererNodes.setText("3D");
+        rendererNodes.getStyleClass().add("renderer");
+        rendererNodes.setPrefWidth(50.0);
+        rendererNodes.setMnemonicParsing(false);
+        rendererNodes.setOnAction(actionEvent -> switchRenderer(new NodeRenderer()));
+        ToggleButton rendererMesh = new ToggleButton();
+        rendererMesh.setText("Mesh");
+        rendererMesh.getStyleClass().add("renderer");
+        rendererMesh.setPrefWidth(50.0);
+        rendererMesh.setMnemonicParsing(false);
+        rendererMesh.setOnAction(actionEvent -> switchRenderer(new MeshRenderer()));
+        ToggleButton rendererCanvas = new ToggleButton();
+        rendererCanvas.setText("2D");
+        rendererCanvas.getStyleClass().add("renderer");
+        rendererCanvas.setPrefWidth(50.0);
+        rendererCanvas.setMnemonicParsing(false);
+        rendererCanvas.setOnAction(actionEvent -> switchRenderer(new CanvasRenderer()));
+
+        toggleGroupRenderer.getToggles().addAll(rendererNodes, rendererMesh, rendererCanvas);
+        if (world.getRenderer() instanceof MeshRenderer) {
+            toggleGroupRenderer.selectToggle(rendererMesh);
+        } else if (world.getRenderer() instanceof CanvasRenderer) {
+            toggleGroupRenderer.selectToggle(rendererCanvas);
+        } else {
+            toggleGroupRenderer.selectToggle(rendererNodes);
+        }
+        toggleGroupRenderer.selectedToggleProperty().addListener((obsVal, oldVal, newVal) -> {
+            if (newVal == null)
+                oldVal.setSelected(true);
+        });
+
+        // Label for toggle buttons
+        Label rendererLabel = new Label();
+        rendererLabel.setText("Renderer");
+        // Hint for toggle buttons
+        Label rendererHint = new Label();
+        rendererHint.setText("Mesh and 2D are much faster with thousands of spheres");
+
+        HBox.setMargin(rendererLabel, new Insets(0, 0, 0, 20.0));
+        HBox.setMargin(rendererHint, new Insets(0, 0, 0, 20.0));
+        optionsSectionD.getChildren().addAll(spacingRegionD, rendererNodes, rendererMesh, rendererCanvas, rendererLabel, rendererHint);
+        /* ----------------------SECTION D---------------------- */
+
+        optionsContainer.getChildren().addAll(optionsSectionA, optionsSectionB, optionsSectionC, optionsSectionD);
+        // Four rows do not fit the control panel, so the tab scrolls like the Info and Stats tabs
+        ScrollPane optionsContent = new ScrollPane();
+        optionsContent.setContent(optionsContainer);
+        optionsContent.setHbarPolicy(ScrollPane.ScrollBarPolicy.NEVER);
+        optionsContent.setPrefSize(600.0, 180.0);
+        options.setContent(optionsContent);
 
         return options;
     }
 
+    /**
+     * Draw spheres with a different renderer from now on.
+     * Takes whatever the current renderer put on the canvas off it, and lets the new one put its own on.
+     * @param renderer renderer to switch to
+     */
+    public void switchRenderer(SphereRenderer renderer) {
+        if (renderer.getClass() == world.getRenderer().getClass()) {
+            return;
+        }
+        world.getRenderer().detach(canvas, sphereList);
+        world.setRenderer(renderer);
+        renderer.attach(canvas, sphereList);
+    }
+
     /**
      * Generate the GUI elements of the "Stats" Tab.
      * @return the "Stats" Tab
@@ -797,9 +962,10 @@ public class CanvasController implements Initializable {
         HBox statsSectionF = new HBox();
         HBox statsSectionG = new HBox();
         HBox statsSectionH = new HBox();
+        HBox statsSectionI = new HBox();
 
         customizeBasicHBox("refresh-container", Pos.CENTER, 0.0, 600.0, statsSectionA);
-        customizeBasicHBox("info-container", Pos.CENTER_LEFT, 0.0, 600.0, statsSectionB, statsSectionC, statsSectionD, statsSectionE, statsSectionF, statsSectionG, statsSectionH);
+        customizeBasicHBox("info-container", Pos.CENTER_LEFT, 0.0, 600.0, statsSectionB, statsSectionC, statsSectionD, statsSectionE, statsSectionF, statsSectionG, statsSectionH, statsSectionI);
 
         // Local (session) counters (Not retrieved from DB)
         Text runningText = new Text("Spheres Currently Running: " + sphereList.size());
@@ -814,23 +980,30 @@ public class CanvasController implements Initializable {
         Text wallCollisionSessionText = new Text("Sphere-to-Wall Collisions This Session: " + wallCollisionCount);
         wallCollisionSessionText.getStyleClass().add("normal-text");
 
-        // Global (remote) counters
+        Text pairsTestedText = new Text("Collision Pairs Tested Last Frame: " + world.getPairsTested());
+        pairsTestedText.getStyleClass().add("normal-text");
 
-        // Retrieve global sphere count from DB
-        retrieveGlobalValues();
+        // Global (remote) counters. Placeholders until they are retrieved from the DB in the background
 
-        Text globalSphereText = new Text("Total Spheres Globally: " + globalSphereCount);
+        Text globalSphereText = new Text("Total Spheres Globally: " + globalValue(globalSphereCount, sessionSphereCount));
         globalSphereText.getStyleClass().add("normal-text");
 
-        Text globalSphereCollisionText = new Text("Sphere-to-Sphere Collisions Globally: " + globalSphereCollisionCount);
+        Text globalSphereCollisionText = new Text("Sphere-to-Sphere Collisions Globally: " + globalValue(globalSphereCollisionCount, sphereCollisionCount));
         globalSphereCollisionText.getStyleClass().add("normal-text");
 
-        Text globalWallCollisionText = new Text("Sphere-to-Wall Collisions Globally: " + globalWallCollisionCount);
+        Text globalWallCollisionText = new Text("Sphere-to-Wall Collisions Globally: " + globalValue(globalWallCollisionCount, wallCollisionCount));
         globalWallCollisionText.getStyleClass().add("normal-text");
 
         Region spacingRegionA = new Region();
         spacingRegionA.setMinHeight(5.0);
 
+        // Show the global values retrieved last, plus the session values up to now
+        Runnable showGlobalValues = () -> {
+            globalSphereText.setText("Total Spheres Globally: " + globalValue(globalSphereCount, sessionSphereCount));
+            globalSphereCollisionText.setText("Sphere-to-Sphere Collisions Globally: " + globalValue(globalSphereCollisionCount, sphereCollisionCount));
+            globalWallCollisionText.setText("Sphere-to-Wall Collisions Globally: " + globalValue(globalWallCollisionCount, wallCollisionCount));
+        };
+
         // Refresh button
         Button refresh = new Button("Refresh");
         refresh.setId("refresh");
@@ -840,18 +1013,24 @@ public class CanvasController implements Initializable {
             sphereSessionText.setText("Total Spheres This Session: " + sessionSphereCount);
             sphereCollisionSessionText.setText("Sphere-to-Sphere Collisions This Session: " + sphereCollisionCount);
             wallCollisionSessionText.setText("Sphere-to-Wall Collisions This Session: " + wallCollisionCount);
+            pairsTestedText.setText("Collision Pairs Tested Last Frame: " + world.getPairsTested());
 
-            /* Update global values. Doesn't actually interact with the database
-            This has been done to prevent 2 second freeze on button press, and limit the amount of
-            database questions. Values are actually only updated remotely on application exit,
-            thus limiting the amount of questions to less than 10 per session */
-            globalSphereText.setText("Total Spheres Globally: " + (globalSphereCount + sessionSphereCount));
-            globalSphereCollisionText.setText("Sphere-to-Sphere Collisions Globally: " + (globalSphereCollisionCount + sphereCollisionCount));
-            globalWallCollisionText.setText("Sphere-to-Wall Collisions Globally: " + (globalWallCollisionCount + wallCollisionCount));
+            /* Update global values. Shows the values retrieved last straight away, however old, to prevent the 2 second freeze on button press.
+            If they are older than a minute, fresh ones are retrieved in the background and shown once they arrive.
+            This limits the amount of database questions to one a minute at most, however often the tab is refreshed */
+            showGlobalValues.run();
+            retrieveGlobalValues(showGlobalValues);
         });
         // Refresh stats on selection
         stats.setOnSelectionChanged(event -> refresh.fire());
 
+        /* Retrieve global values from DB in the background. Connecting alone takes about two seconds, or much longer if the DB is unreachable,
+        and used to hold up the whole window */
+        retrieveGlobalValues(() -> {
+            showGlobalValues.run();
+            StartupTimeline.mark("global stats shown");
+        });
+
         Region spacingRegionB = new Region();
         spacingRegionB.setMaxHeight(10.0);
 
@@ -863,8 +1042,9 @@ public class CanvasController implements Initializable {
         statsSectionF.getChildren().add(globalSphereText);
         statsSectionG.getChildren().add(globalSphereCollisionText);
         statsSectionH.getChildren().add(globalWallCollisionText);
+        statsSectionI.getChildren().add(pairsTestedText);
 
-        sessionDiv.getChildren().addAll(statsSectionB, statsSectionC, statsSectionD, statsSectionE);
+        sessionDiv.getChildren().addAll(statsSectionB, statsSectionC, statsSectionD, statsSectionE, statsSectionI);
         globalDiv.getChildren().addAll(statsSectionF, statsSectionG, statsSectionH);
         statsContainer.getChildren().addAll(spacingRegionA, statsSectionA, sessionDiv, spacingRegionB, globalDiv);
         stats.setContent(statsContent);
@@ -873,18 +1053,30 @@ public class CanvasController implements Initializable {
     }
 
     /**
-     * Retrieves the amount of spheres and collisions stored in the database
+     * Retrieves the amount of spheres and collisions stored in the database in the background, unless the ones retrieved last are still fresh
+     * @param then what to do on the FX thread once they are retrieved
      */
-    public void retrieveGlobalValues() {
-        if (connection != null) {
-            globalSphereCount = Database.retrieveSphereCount(connection);
-            globalSphereCollisionCount = Database.retrieveSphereCollisionCount(connection);
-            globalWallCollisionCount = Database.retrieveWallCollisionCount(connection);
-        } else {
-            globalSphereCount = -1;
-            globalSphereCollisionCount = -1;
-            globalWallCollisionCount = -1;
+    private void retrieveGlobalValues(Runnable then) {
+        StatsRepository.revalidate().thenAccept(snapshot -> Platform.runLater(() -> {
+            globalSphereCount = snapshot != null ? snapshot.getOthersSphereCount() : -1;
+            globalSphereCollisionCount = snapshot != null ? snapshot.getOthersSphereCollisionCount() : -1;
+            globalWallCollisionCount = snapshot != null ? snapshot.getOthersWallCollisionCount() : -1;
+            globalValuesRetrieved = true;
+            then.run();
+        }));
+    }
+
+    /**
+     * Text to show for a global value in the Stats tab
+     * @param global value retrieved from the database less the session value, or -1 if it could not be retrieved
+     * @param session value of this session, only part of which may be in the database yet
+     * @return the sum of both, or a placeholder while the global value is still being retrieved or if it could not be
+     */
+    private String globalValue(long global, int session) {
+        if (!globalValuesRetrieved) {
+            return "Loading...";
         }
+        return global < 0 ? "Unavailable" : String.valueOf(global + session);
     }
 
 
@@ -892,5 +1084,8 @@ public class CanvasController implements Initializable {
     public void initialize(URL url, ResourceBundle resourceBundle) {
         Bridge.setCanvasController(this);
         canvas.getChildren().add(generateControlPanel());
+        world.getRenderer().attach(canvas, sphereList);
+        StatsFlusher.start();
+        StartupTimeline.mark("control panel built");
     }
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+package com.bounce;
+
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.image.Image;
+import javafx.scene.layout.AnchorPane;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.CycleMethod;
+import javafx.scene.paint.RadialGradient;
+import javafx.scene.paint.Stop;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Draws every sphere in one pass onto a single Canvas layer behind the control panel, instead of keeping a 3D node per sphere.
+ * Each sphere is a pre-rendered shaded sprite, cached per colour and (whole pixel) radius, so a pulse is one drawImage per sphere
+ * and the scene graph only ever has one node to sync, however many spheres there are.
+ * As there are no nodes to right-click, the layer asks the world which sphere is under the cursor to show the "Delete" menu.
+ */
+public class CanvasRenderer implements SphereRenderer {
+    // Layer every sphere is drawn onto. Sized to the root pane
+    private final Canvas layer = new Canvas();
+    private final GraphicsContext graphics = layer.getGraphicsContext2D();
+    // Sprites per colour, indexed by radius in whole pixels
+    private final HashMap<Color, Image[]> sprites = new HashMap<>();
+    // Menu shown when right-clicking a sphere. Only one at a time
+    private final ContextMenu menu = new ContextMenu();
+
+    public CanvasRenderer() {
+        layer.setOnContextMenuRequested(contextMenuEvent -> SphereRenderer.showDeleteMenu(menu, layer, contextMenuEvent));
+    }
+
+    @Override
+    public void attach(AnchorPane canvas, List<NewSphere> bodies) {
+        layer.widthProperty().bind(canvas.widthProperty());
+        layer.heightProperty().bind(canvas.heightProperty());
+        // Behind everything else, so that spheres do not appear on top of the control panel
+        canvas.getChildren().add(0, layer);
+    }
+
+    @Override
+    public void detach(AnchorPane canvas, List<NewSphere> bodies) {
+        canvas.getChildren().remove(layer);
+        layer.widthProperty().unbind();
+        layer.heightProperty().unbind();
+        clear();
+    }
+
+    // Nothing is kept per sphere here
+    @Override
+    public void show(NewSphere body) {
+    }
+
+    @Override
+    public void hide(NewSphere body, int index) {
+    }
+
+    @Override
+    public void begin() {
+        clear();
+    }
+
+    @Override
+    public void draw(NewSphere body, double x, double y, double radius, Color colour) {
+        graphics.drawImage(sprite(colour, radius), x - radius, y - radius, radius * 2, radius * 2);
+    }
+
+    @Override
+    public void end() {
+    }
+
+    @Override
+    public void clear() {
+        graphics.clearRect(0, 0, layer.getWidth(), layer.getHeight());
+    }
+
+    /**
+     * Find the sprite for a given colour and radius, rendering it the first time it is needed.
+     * Radii are rounded to whole pixels, and the sprite is scaled to the exact radius when drawn
+     * @param colour colour of the sphere
+     * @param radius radius of the sphere
+     * @return the sprite
+     */
+    private Image sprite(Color colour, double radius) {
+        Image[] byRadius = sprites.computeIfAbsent(colour, c -> new Image[(int) CanvasController.MAX_SPHERE_RADIUS + 2]);
+        int index = (int) Math.max(1, Math.min(byRadius.length - 1, Math.round(radius)));
+        if (byRadius[index] == null) {
+            byRadius[index] = renderSprite(colour, index);
+        }
+        return byRadius[index];
+    }
+
+    /**
+     * Render a shaded circle that looks like a lit Sphere node: brightest in the middle, falling off towards the edges
+     * @param colour colour of the sphere
+     * @param radius radius of the sprite in pixels
+     * @return the sprite, with a transparent background
+     */
+    private static Image renderSprite(Color colour, int radius) {
+        Canvas scratch = new Canvas(radius * 2, radius * 2);
+        GraphicsContext context = scratch.getGraphicsContext2D();
+        context.setFill(new RadialGradient(0, 0, 0.5, 0.5, 0.5, true, CycleMethod.NO_CYCLE,
+                new Stop(0, colour),
+                new Stop(0.7, colour.deriveColor(0, 1, 0.8, 1)),
+                new Stop(1, colour.deriveColor(0, 1, 0.35, 1))));
+        context.fillOval(0, 0, radius * 2, radius * 2);
+        SnapshotParameters parameters = new SnapshotParameters();
+        parameters.setFill(Color.TRANSPARENT);
+        return scratch.snapshot(parameters, null);
+    }
+}
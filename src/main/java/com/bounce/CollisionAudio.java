@@ -0,0 +1,222 @@
+package com.bounce;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.SourceDataLine;
+import java.io.BufferedInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays the collision sound effects.
+ * Both effects are decoded into PCM once, and mixed on a dedicated audio thread into a single SourceDataLine.
+ * Previously every collision opened the WAV file, decoded it and allocated a new Clip, on the FX thread, which is what made sound so laggy in busy scenes.
+ * Hits are only counted by whoever reports them; the audio thread picks them up once per block, starts at most one voice per effect every
+ * COALESCE_NANOS however many hits came in, and never mixes more than MAX_VOICES at once (the oldest voice makes way for a new one),
+ * so the CPU spent and the delay before a sound is heard stay the same however many spheres collide.
+ */
+public class CollisionAudio {
+
+    /**
+     * The sound effects, and where to find them
+     */
+    public enum Effect {
+        WALL("/assets/wall-collision.wav"),
+        SPHERE("/assets/sphere-collision.wav");
+
+        private final String path;
+
+        Effect(String path) {
+            this.path = path;
+        }
+    }
+
+    // Format everything is decoded to and mixed in: CD quality, 16 bit signed little-endian stereo, which is what the effects are stored as anyway
+    private static final AudioFormat FORMAT = new AudioFormat(44100f, 16, 2, true, false);
+    private static final int CHANNELS = 2;
+    // Frames mixed and written at once. About 6ms of audio
+    private static final int BLOCK_FRAMES = 256;
+    // Blocks the line buffers ahead. Bounds the latency of a new sound to about 25ms
+    private static final int BUFFERED_BLOCKS = 4;
+    // Most voices mixed at once
+    private static final int MAX_VOICES = 8;
+    // Hits of the same effect within this long of each other are played as one
+    private static final long COALESCE_NANOS = 50_000_000L;
+    // Volume of each voice, leaving some headroom for several playing at once
+    private static final float VOICE_GAIN = 0.7f;
+
+    // Decoded samples of every effect, interleaved by channel. Indexed by Effect.ordinal()
+    private short[][] clips;
+    // Hits of every effect reported since the audio thread last looked
+    private final AtomicIntegerArray pending = new AtomicIntegerArray(Effect.values().length);
+    // Thread mixing and writing the audio. Started the first time a sound is played
+    private Thread thread = null;
+    // Whether the audio thread is parked until there is something to play
+    private volatile boolean waiting = false;
+    // Set if the effects could not be decoded or no audio line could be opened, after which nothing is played
+    private volatile boolean broken = false;
+
+    // Voices currently playing: which effect, and how far into it. Only touched by the audio thread
+    private final int[] voiceEffect = new int[MAX_VOICES];
+    private final int[] voicePosition = new int[MAX_VOICES];
+    private int voiceCount = 0;
+    // When a voice of every effect was last started. Only touched by the audio thread
+    private final long[] lastStarted = new long[Effect.values().length];
+
+    /**
+     * Report collisions to be heard. Never blocks; safe to call from any thread, any amount of times
+     * @param effect sound the collisions make
+     * @param hits amount of collisions
+     */
+    public void play(Effect effect, int hits) {
+        if (broken || hits <= 0) {
+            return;
+        }
+        pending.addAndGet(effect.ordinal(), hits);
+        Thread thread = start();
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Start the audio thread, unless it is already running
+     * @return the audio thread
+     */
+    private synchronized Thread start() {
+        if (thread == null) {
+            thread = new Thread(this::run, "Bounce-Audio");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return thread;
+    }
+
+    /**
+     * Body of the audio thread. Decodes the effects, then mixes one block after another into the line.
+     * Writing to the line blocks while its buffer is full, which is what paces the thread. Parks while there is nothing to play.
+     */
+    private void run() {
+        SourceDataLine line;
+        try {
+            clips = new short[Effect.values().length][];
+            for (Effect effect : Effect.values()) {
+                clips[effect.ordinal()] = decode(effect.path);
+            }
+            line = AudioSystem.getSourceDataLine(FORMAT);
+            line.open(FORMAT, BLOCK_FRAMES * CHANNELS * 2 * BUFFERED_BLOCKS);
+            line.start();
+        } catch (Exception e) {
+            e.printStackTrace();
+            broken = true;
+            return;
+        }
+
+        int[] mix = new int[BLOCK_FRAMES * CHANNELS];
+        byte[] block = new byte[BLOCK_FRAMES * CHANNELS * 2];
+        while (!Thread.currentThread().isInterrupted()) {
+            if (voiceCount == 0 && !hasPending()) {
+                // Nothing to play. Raise the flag before looking once more, so that a hit reported in between is never missed
+                waiting = true;
+                if (!hasPending()) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+                continue;
+            }
+            startVoices();
+            mixBlock(mix, block);
+            line.write(block, 0, block.length);
+        }
+        line.close();
+    }
+
+    private boolean hasPending() {
+        for (int e = 0; e < pending.length(); e++) {
+            if (pending.get(e) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Turn the hits reported since the last block into voices. Any amount of hits of an effect starts at most one voice,
+     * and none at all if one was started less than COALESCE_NANOS ago
+     */
+    private void startVoices() {
+        long now = System.nanoTime();
+        for (int e = 0; e < pending.length(); e++) {
+            if (pending.getAndSet(e, 0) == 0 || now - lastStarted[e] < COALESCE_NANOS) {
+                continue;
+            }
+            lastStarted[e] = now;
+            if (voiceCount == MAX_VOICES) {
+                // Steal the oldest voice, which is nearest to its end anyway
+                removeVoice(0);
+            }
+            voiceEffect[voiceCount] = e;
+            voicePosition[voiceCount] = 0;
+            voiceCount++;
+        }
+    }
+
+    /**
+     * Add up every voice over one block, clamp the result to 16 bits, and drop the voices that reached their end
+     */
+    private void mixBlock(int[] mix, byte[] block) {
+        Arrays.fill(mix, 0);
+        for (int v = 0; v < voiceCount; v++) {
+            short[] clip = clips[voiceEffect[v]];
+            int position = voicePosition[v];
+            int samples = Math.min(mix.length, clip.length - position);
+            for (int s = 0; s < samples; s++) {
+                mix[s] += (int) (clip[position + s] * VOICE_GAIN);
+            }
+            voicePosition[v] = position + samples;
+        }
+        for (int s = 0; s < mix.length; s++) {
+            int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[s]));
+            block[s * 2] = (byte) sample;
+            block[s * 2 + 1] = (byte) (sample >> 8);
+        }
+        for (int v = voiceCount - 1; v >= 0; v--) {
+            if (voicePosition[v] >= clips[voiceEffect[v]].length) {
+                removeVoice(v);
+            }
+        }
+    }
+
+    /**
+     * Remove a voice, keeping the rest in the order they were started
+     */
+    private void removeVoice(int v) {
+        System.arraycopy(voiceEffect, v + 1, voiceEffect, v, voiceCount - v - 1);
+        System.arraycopy(voicePosition, v + 1, voicePosition, v, voiceCount - v - 1);
+        voiceCount--;
+    }
+
+    /**
+     * Decode a sound file from the resources into PCM samples in the mixing format.
+     * Works in executables, the same way the sounds were loaded before.
+     * @param url path to the sound file
+     * @return the samples, interleaved by channel
+     */
+    private short[] decode(String url) throws Exception {
+        InputStream stream = getClass().getResourceAsStream(url);
+        InputStream bufferedIn = new BufferedInputStream(Objects.requireNonNull(stream));
+        try (AudioInputStream source = AudioSystem.getAudioInputStream(bufferedIn);
+             AudioInputStream converted = source.getFormat().matches(FORMAT) ? source : AudioSystem.getAudioInputStream(FORMAT, source)) {
+            byte[] bytes = converted.readAllBytes();
+            short[] samples = new short[bytes.length / 2];
+            for (int s = 0; s < samples.length; s++) {
+                samples[s] = (short) ((bytes[s * 2] & 0xff) | (bytes[s * 2 + 1] << 8));
+            }
+            return samples;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.bounce;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Unbounded lock-free queue for many producers and a single consumer (Vyukov's intrusive MPSC queue, with a node per item).
+ * Offering is a single atomic swap of the tail, so any amount of threads can feed the queue without ever blocking each other or the consumer.
+ * Only one thread may ever poll.
+ * @param <T> type of the items
+ */
+public class CommandQueue<T> {
+
+    private static final class Node<T> {
+        private T value;
+        private volatile Node<T> next;
+
+        private Node(T value) {
+            this.value = value;
+        }
+    }
+
+    // Last node offered. Swapped by producers
+    private final AtomicReference<Node<T>> tail;
+    // Node before the next item to poll. Only touched by the consumer
+    private Node<T> head;
+
+    public CommandQueue() {
+        Node<T> stub = new Node<>(null);
+        head = stub;
+        tail = new AtomicReference<>(stub);
+    }
+
+    /**
+     * Add an item to the end of the queue. Safe to call from any thread
+     * @param value item to add
+     */
+    public void offer(T value) {
+        Node<T> node = new Node<>(value);
+        Node<T> previous = tail.getAndSet(node);
+        /* Between the swap and this link, the consumer cannot see the new node (nor any offered after it) yet.
+        It simply finds the queue empty until the link is made, which is why every producer has to wake the consumer up after offering */
+        previous.next = node;
+    }
+
+    /**
+     * Take the item at the front of the queue. Must only be called by the consumer
+     * @return the item, or null if the queue is empty
+     */
+    public T poll() {
+        Node<T> next = head.next;
+        if (next == null) {
+            return null;
+        }
+        T value = next.value;
+        // The node becomes the new stub; let go of the item so it can be collected
+        next.value = null;
+        head = next;
+        return value;
+    }
+
+    /**
+     * @return true if there is nothing to poll right now. Must only be called by the consumer
+     */
+    public boolean isEmpty() {
+        return head.next == null;
+    }
+}
@@ -1,20 +1,59 @@
 package com.bounce;
 
 import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * Responsible for the back-end connection.
- * The remote Heroku database is only truly queried twice:
- * 1. On application start-up to retrieve current stats
- * 2. On application termination via "Exit" button
+ * The remote Heroku database is only queried:
+ * 1. On application start-up to retrieve current stats, and again when the "Stats" tab is refreshed, once a minute at most (see StatsRepository)
+ * 2. Once a minute at most, to add the session stats counted since (see StatsFlusher), and once more on termination via "Exit" button
  * This is so to prevent surpassing the limit of 3600 questions per hour imposed by ClearDB
  * Moreover, it takes two seconds to query the database, which freezes everything if ran on the main thread
- * That forces creating new threads for each database query, otherwise it would make the app stutter
+ * That forces running database queries on another thread, otherwise it would make the app stutter
  * Previous attempts at updating the database more frequently resulted in temporary unresponsiveness
+ *
+ * Global counts are stored one of two ways, chosen with -Dbounce.statsStore=row|append:
+ * - row (default): every client adds its counts straight to the single row in "statistics"
+ * - append: every client inserts a row of its counts into "statistics_deltas" instead, so that clients never wait on each other's lock
+ *   of that one row. A periodic rollup (see rollup) folds the deltas into "statistics", and reading sums "statistics" and whatever is not rolled up yet
+ * Tables are referred to by name only, so that any MySQL-compatible database can stand in for the remote one, see -Dbounce.databaseUrl
  */
 public class Database {
+    // Longest to wait for the connection to be made, and for any query to answer, in seconds. Without these, an unreachable database hangs whoever waits for it
+    private static final int CONNECT_TIMEOUT = 5;
+    private static final int QUERY_TIMEOUT = 10;
+    // Remote database, unless another one is given with -Dbounce.databaseUrl=<jdbc url> (or useDatabase)
+    private static String url = System.getProperty("bounce.databaseUrl", "jdbc:mysql://eu-cdbr-west-02.cleardb.net:3306/heroku_45b5e60a7be0064?reconnect=true");
+    // Whether counts are stored as rows of deltas rather than added to the single statistics row
+    private static boolean append = "append".equals(System.getProperty("bounce.statsStore", "row"));
+    // Most delta rows folded by a single rollup, to keep its transaction short
+    private static final int ROLLUP_BATCH = 1000;
     private static Connection connection = null;
-    private static PreparedStatement preparedStatement = null;
+    // Whether the tables only used by journals and the append mode were made sure to exist. Once per process is enough, not once per connection
+    private static boolean tablesCreated = false;
+    // Whether the last attempt to reach the database failed. An outage is reported once, rather than on every retry. Only touched by the database thread
+    private static boolean outage = false;
+    // Statements prepared on the connection so far, by their SQL, so that each is only prepared once per connection. Only touched by the database thread
+    private static final Map<String, PreparedStatement> statements = new HashMap<>();
+    private static Connection preparedOn = null;
+    // Connection being made in the background, or made already. Only started the first time it is needed
+    private static CompletableFuture<Connection> pendingConnection = null;
+    // Single background thread every asynchronous query runs on, so that they never overlap on the one connection
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Bounce-Database");
+        // Never keep the app alive, e.g. while stuck waiting for an unreachable database
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
      * Establish connection to Heroku ClearDB remote database
@@ -22,14 +61,121 @@ public class Database {
      */
     public static Connection getConnection() {
         try {
-            connection = DriverManager.getConnection("jdbc:mysql://eu-cdbr-west-02.cleardb.net:3306/heroku_45b5e60a7be0064?reconnect=true",System.getProperty("USER"), System.getProperty("PASS"));
+            DriverManager.setLoginTimeout(CONNECT_TIMEOUT);
+            // The socket timeout only backs up the query timeout, in case the server stops answering altogether. Both are MySQL driver settings
+            connection = DriverManager.getConnection(!url.startsWith("jdbc:mysql:") ? url : url + (url.contains("?") ? "&" : "?")
+                    + "connectTimeout=" + CONNECT_TIMEOUT * 1000 + "&socketTimeout=" + QUERY_TIMEOUT * 2000, System.getProperty("USER"), System.getProperty("PASS"));
+            /* Journals are used in both modes. Their table has to exist before the first batch is sent,
+            otherwise every batch fails on the missing table and never gets as far as registering its journal */
+            try {
+                createTables(connection);
+            } catch (SQLException e) {
+                failed(e);
+            }
+            succeeded();
             return connection;
         } catch (SQLException e) {
-            e.printStackTrace();
+            failed(e);
             return null;
         }
     }
 
+    /**
+     * Use another database from now on, e.g. a local one in tests, rather than the one given on the command line.
+     * Closes the current connection; the next one is made to the given database. Must not be called while queries are running
+     * @param databaseUrl JDBC URL of the database, including whatever credentials it needs
+     * @param appendOnly whether counts are stored as rows of deltas, as with -Dbounce.statsStore=append
+     */
+    static synchronized void useDatabase(String databaseUrl, boolean appendOnly) {
+        closeConnection();
+        connection = null;
+        pendingConnection = null;
+        tablesCreated = false;
+        url = databaseUrl;
+        append = appendOnly;
+    }
+
+    /**
+     * Report that the database could not be reached or a query failed, unless that was reported already since it last worked.
+     * While offline, every flush fails; printing every one of them would flood the console
+     * @param e what went wrong
+     */
+    private static void failed(SQLException e) {
+        if (!outage) {
+            outage = true;
+            System.err.println("Database unavailable, retrying in the background: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Report that the database works again, if it did not before
+     */
+    private static void succeeded() {
+        if (outage) {
+            outage = false;
+            System.err.println("Database available again");
+        }
+    }
+
+    /**
+     * Establish the connection in the background, the first time this is called. Later calls share the same connection
+     * @return the connection once it is made, or null if the database could not be reached
+     */
+    public static synchronized CompletableFuture<Connection> getConnectionAsync() {
+        if (pendingConnection == null) {
+            pendingConnection = CompletableFuture.supplyAsync(() -> {
+                Connection c = getConnection();
+                StartupTimeline.mark(c != null ? "database connected" : "database unreachable");
+                return c;
+            }, executor);
+        }
+        return pendingConnection;
+    }
+
+    /**
+     * Run a query in the background, once the connection is made
+     * @param query query to run. Given null if the database could not be reached
+     * @param <T> type of the result
+     * @return the result of the query, once it has run
+     */
+    public static <T> CompletableFuture<T> query(Function<Connection, T> query) {
+        return getConnectionAsync().thenApplyAsync(query, executor);
+    }
+
+    /**
+     * The current connection, or a new one if there is none (e.g. the database could not be reached before) or it was closed.
+     * Must be called on the database thread
+     * @return the connection, or null if the database could not be reached
+     */
+    static Connection connected() {
+        try {
+            if (connection != null && !connection.isClosed()) {
+                return connection;
+            }
+        } catch (SQLException e) {
+            failed(e);
+        }
+        return getConnection();
+    }
+
+    /**
+     * Run a task on the database thread over and over, waiting the given period between one run and the next
+     * @param task task to run. May use connected()
+     * @param period time between runs
+     * @param unit unit of the period
+     * @return handle to cancel it with
+     */
+    public static ScheduledFuture<?> schedule(Runnable task, long period, TimeUnit unit) {
+        return executor.scheduleWithFixedDelay(task, period, period, unit);
+    }
+
+    /**
+     * @return the database thread, for one-off tasks that have to run after every task submitted before them
+     */
+    static ScheduledExecutorService executor() {
+        return executor;
+    }
+
     /**
      * Close the connection to the remote database
      */
@@ -44,92 +190,289 @@ public class Database {
     }
 
     /**
-     * Add sphere session count to global sphere generation count
+     * Add session counts to the global counts, all three in a single statement
      * @param c connection to the database
+     * @param spheres spheres generated since the last update
+     * @param sphereCollisions sphere-to-sphere collisions since the last update
+     * @param wallCollisions sphere-to-wall collisions since the last update
+     * @return true if the update went through
      */
-    public static void updateSphereCount(Connection c) {
+    public static boolean updateCounts(Connection c, long spheres, long sphereCollisions, long wallCollisions) {
         try {
-            preparedStatement = c.prepareStatement("UPDATE heroku_45b5e60a7be0064.statistics SET sphere_count = sphere_count + ?;");
-            preparedStatement.setInt(1, Bridge.getCanvasController().getSessionSphereCount());
+            PreparedStatement preparedStatement = prepare(c, append
+                    ? "INSERT INTO statistics_deltas (journal_id, to_seq, sphere_count, sphere_collision_count, wall_collision_count) VALUES (NULL, 0, ?, ?, ?);"
+                    : "UPDATE statistics SET sphere_count = sphere_count + ?, "
+                    + "sphere_collision_count = sphere_collision_count + ?, wall_collision_count = wall_collision_count + ?;");
+            preparedStatement.setLong(1, spheres);
+            preparedStatement.setLong(2, sphereCollisions);
+            preparedStatement.setLong(3, wallCollisions);
             preparedStatement.execute();
+            succeeded();
+            return true;
         } catch (SQLException e) {
-            e.printStackTrace();
+            failed(e);
+            return false;
         }
     }
 
     /**
-     * Add sphere collision session count to global sphere-to-sphere collision count
+     * Add a batch of journal entries to the global counts, unless they are there already (see StatsJournal).
+     * The counts and the number of the journal's last applied entry are updated in the same transaction, so either both change or neither does.
+     * With -Dbounce.statsStore=append, the delta row inserted carries that number instead, and is only inserted if it comes after the journal's last one
+     * A journal the database has not seen before is registered first
      * @param c connection to the database
+     * @param journal ID of the journal
+     * @param from number of the last entry applied before the batch, as far as the journal knows
+     * @param to number of the last entry in the batch
+     * @param spheres spheres generated over the batch
+     * @param sphereCollisions sphere-to-sphere collisions over the batch
+     * @param wallCollisions sphere-to-wall collisions over the batch
+     * @return number of the journal's last applied entry afterwards, or -1 on error
      */
-    public static void updateSphereCollisionCount(Connection c) {
+    public static long applyBatch(Connection c, UUID journal, long from, long to, long spheres, long sphereCollisions, long wallCollisions) {
         try {
-            preparedStatement = c.prepareStatement("UPDATE heroku_45b5e60a7be0064.statistics SET sphere_collision_count = sphere_collision_count + ?;");
-            preparedStatement.setInt(1, Bridge.getCanvasController().getSphereCollisionCount());
-            preparedStatement.execute();
+            if (writeBatch(c, journal, from, to, spheres, sphereCollisions, wallCollisions)) {
+                succeeded();
+                return to;
+            }
+            // Either an earlier batch went through after all, which the journal has to hear of, or the journal is not registered yet
+            PreparedStatement select = prepare(c, append
+                    ? "SELECT GREATEST(j.last_seq, COALESCE((SELECT MAX(d.to_seq) FROM statistics_deltas d WHERE d.journal_id = j.journal_id), 0)) AS last_seq "
+                    + "FROM statistics_journals j WHERE j.journal_id = ?;"
+                    : "SELECT last_seq FROM statistics_journals WHERE journal_id = ?;");
+            select.setString(1, journal.toString());
+            try (ResultSet resultSet = select.executeQuery()) {
+                if (resultSet.next()) {
+                    return resultSet.getLong("last_seq");
+                }
+            }
+            createTables(c);
+            PreparedStatement insert = prepare(c, "INSERT IGNORE INTO statistics_journals (journal_id, last_seq) VALUES (?, ?);");
+            insert.setString(1, journal.toString());
+            insert.setLong(2, from);
+            insert.execute();
+            return writeBatch(c, journal, from, to, spheres, sphereCollisions, wallCollisions) ? to : -1;
         } catch (SQLException e) {
-            e.printStackTrace();
+            failed(e);
+            return -1;
         }
     }
 
-    /**
-     * Add wall collision session count to global sphere-to-wall collision count
-     * @param c connection to the database
-     */
-    public static void updateWallCollisionCount(Connection c) {
+    private static boolean writeBatch(Connection c, UUID journal, long from, long to, long spheres, long sphereCollisions, long wallCollisions) throws SQLException {
+        if (append) {
+            // The journal's last entry is the highest of the one last rolled up, and those of its deltas not rolled up yet
+            PreparedStatement preparedStatement = prepare(c, "INSERT INTO statistics_deltas (journal_id, to_seq, sphere_count, sphere_collision_count, wall_collision_count) "
+                    + "SELECT j.journal_id, ?, ?, ?, ? FROM statistics_journals j WHERE j.journal_id = ? "
+                    + "AND GREATEST(j.last_seq, COALESCE((SELECT MAX(d.to_seq) FROM statistics_deltas d WHERE d.journal_id = j.journal_id), 0)) <= ?;");
+            preparedStatement.setLong(1, to);
+            preparedStatement.setLong(2, spheres);
+            preparedStatement.setLong(3, sphereCollisions);
+            preparedStatement.setLong(4, wallCollisions);
+            preparedStatement.setString(5, journal.toString());
+            preparedStatement.setLong(6, from);
+            return preparedStatement.executeUpdate() > 0;
+        }
+        /* Two statements in one transaction, rather than a single multi-table UPDATE, which only MySQL has.
+        The journal's row goes first, and stays locked until the commit, so two batches of the same journal can never both get through */
+        PreparedStatement journals = prepare(c, "UPDATE statistics_journals SET last_seq = ? WHERE journal_id = ? AND last_seq <= ?;");
+        PreparedStatement counts = prepare(c, "UPDATE statistics SET sphere_count = sphere_count + ?, "
+                + "sphere_collision_count = sphere_collision_count + ?, wall_collision_count = wall_collision_count + ?;");
+        c.setAutoCommit(false);
         try {
-            preparedStatement = c.prepareStatement("UPDATE heroku_45b5e60a7be0064.statistics SET wall_collision_count = wall_collision_count + ?;");
-            preparedStatement.setInt(1, Bridge.getCanvasController().getWallCollisionCount());
-            preparedStatement.execute();
+            journals.setLong(1, to);
+            journals.setString(2, journal.toString());
+            journals.setLong(3, from);
+            if (journals.executeUpdate() == 0) {
+                c.rollback();
+                return false;
+            }
+            counts.setLong(1, spheres);
+            counts.setLong(2, sphereCollisions);
+            counts.setLong(3, wallCollisions);
+            counts.execute();
+            c.commit();
+            return true;
         } catch (SQLException e) {
-            e.printStackTrace();
+            c.rollback();
+            throw e;
+        } finally {
+            c.setAutoCommit(true);
         }
     }
 
     /**
-     * Retrieve the amount of spheres generated by all users
-     * @return integer stored in DB representing generated spheres
+     * Fold delta rows into the single statistics row, oldest first, at most ROLLUP_BATCH at a time, all in one transaction.
+     * The journals the rows came from remember their last entry that was folded, so that it is still never applied twice.
+     * Only one client rolls up at a time, the one holding a named lock of the database; any other client trying meanwhile skips its rollup
+     * rather than waiting, so rollups never hold up each other, nor lock any rows the clients inserting deltas could wait on.
+     * Does nothing unless -Dbounce.statsStore=append
+     * @param c connection to the database
+     * @return the amount of rows folded (0 if another client is rolling up), or -1 on error
      */
-    public static int retrieveSphereCount(Connection c) {
+    public static int rollup(Connection c) {
+        if (!append) {
+            return 0;
+        }
         try {
-            preparedStatement = c.prepareStatement("SELECT sphere_count FROM statistics");
-            ResultSet resultSet = preparedStatement.executeQuery();
-            resultSet.next();
-            return resultSet.getInt("sphere_count");
+            // Lock names are server-wide, hence the name of the database in it
+            try (ResultSet resultSet = prepare(c, "SELECT GET_LOCK(CONCAT(DATABASE(), '.statistics_rollup'), 0);").executeQuery()) {
+                if (!resultSet.next() || resultSet.getInt(1) != 1) {
+                    succeeded();
+                    return 0;
+                }
+            }
+            try {
+                return foldDeltas(c);
+            } finally {
+                try (ResultSet resultSet = prepare(c, "SELECT RELEASE_LOCK(CONCAT(DATABASE(), '.statistics_rollup'));").executeQuery()) {
+                    resultSet.next();
+                }
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
+            failed(e);
             return -1;
         }
     }
 
     /**
-     * Retrieve the amount of sphere to sphere collisions generated by all users
-     * @return integer stored in DB representing collision amount
+     * Fold up to ROLLUP_BATCH delta rows into the statistics row, in one transaction. Only called by the holder of the rollup lock,
+     * so the rows can be read without locking them: nobody else deletes them meanwhile
+     * @param c connection to the database
+     * @return the amount of rows folded
      */
-    public static int retrieveSphereCollisionCount(Connection c) {
+    private static int foldDeltas(Connection c) throws SQLException {
+        PreparedStatement delete = prepare(c, "DELETE FROM statistics_deltas WHERE id = ?;");
+        PreparedStatement journals = prepare(c, "UPDATE statistics_journals SET last_seq = GREATEST(last_seq, ?) WHERE journal_id = ?;");
+        c.setAutoCommit(false);
         try {
-            preparedStatement = c.prepareStatement("SELECT sphere_collision_count FROM statistics");
-            ResultSet resultSet = preparedStatement.executeQuery();
-            resultSet.next();
-            return resultSet.getInt("sphere_collision_count");
+            long spheres = 0;
+            long sphereCollisions = 0;
+            long wallCollisions = 0;
+            Map<String, Long> lastSeqs = new HashMap<>();
+            int rows = 0;
+            try (ResultSet resultSet = prepare(c, "SELECT id, journal_id, to_seq, sphere_count, sphere_collision_count, wall_collision_count "
+                    + "FROM statistics_deltas ORDER BY id LIMIT " + ROLLUP_BATCH + ";").executeQuery()) {
+                while (resultSet.next()) {
+                    spheres += resultSet.getLong("sphere_count");
+                    sphereCollisions += resultSet.getLong("sphere_collision_count");
+                    wallCollisions += resultSet.getLong("wall_collision_count");
+                    String journal = resultSet.getString("journal_id");
+                    if (journal != null) {
+                        lastSeqs.merge(journal, resultSet.getLong("to_seq"), Math::max);
+                    }
+                    delete.setLong(1, resultSet.getLong("id"));
+                    delete.addBatch();
+                    rows++;
+                }
+            }
+            if (rows > 0) {
+                // Journals before the statistics row, in the same order as writeBatch locks them
+                for (Map.Entry<String, Long> lastSeq : lastSeqs.entrySet()) {
+                    journals.setLong(1, lastSeq.getValue());
+                    journals.setString(2, lastSeq.getKey());
+                    journals.addBatch();
+                }
+                journals.executeBatch();
+                PreparedStatement update = prepare(c, "UPDATE statistics SET sphere_count = sphere_count + ?, "
+                        + "sphere_collision_count = sphere_collision_count + ?, wall_collision_count = wall_collision_count + ?;");
+                update.setLong(1, spheres);
+                update.setLong(2, sphereCollisions);
+                update.setLong(3, wallCollisions);
+                update.execute();
+                delete.executeBatch();
+            }
+            c.commit();
+            succeeded();
+            return rows;
         } catch (SQLException e) {
-            e.printStackTrace();
-            return -1;
+            c.rollback();
+            throw e;
+        } finally {
+            // The statements are kept for the next rollup, which must not get whatever this one left in them if it failed
+            delete.clearBatch();
+            journals.clearBatch();
+            c.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * @return true if counts are stored as rows of deltas (-Dbounce.statsStore=append), which have to be rolled up every now and then
+     */
+    public static boolean isAppendOnly() {
+        return append;
+    }
+
+    /**
+     * Create the tables only used by journals and the append mode, unless they exist already, or this was done before by this process
+     * @param c connection to the database
+     */
+    private static void createTables(Connection c) throws SQLException {
+        if (tablesCreated) {
+            return;
         }
+        try (Statement create = c.createStatement()) {
+            create.setQueryTimeout(QUERY_TIMEOUT);
+            create.execute("CREATE TABLE IF NOT EXISTS statistics_journals "
+                    + "(journal_id CHAR(36) NOT NULL PRIMARY KEY, last_seq BIGINT NOT NULL);");
+            if (append) {
+                create.execute("CREATE TABLE IF NOT EXISTS statistics_deltas (id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, journal_id CHAR(36) NULL, "
+                        + "to_seq BIGINT NOT NULL, sphere_count BIGINT NOT NULL, sphere_collision_count BIGINT NOT NULL, wall_collision_count BIGINT NOT NULL, "
+                        + "UNIQUE KEY (journal_id, to_seq));");
+            }
+        }
+        tablesCreated = true;
     }
 
     /**
-     * Retrieve the amount of sphere to wall collisions generated by all users
-     * @return integer stored in DB representing collision amount
+     * Retrieve the amount of spheres, sphere-to-sphere collisions and sphere-to-wall collisions generated by all users, in one query.
+     * They used to be retrieved one query each, i.e. three round trips of about two seconds each
+     * @param c connection to the database
+     * @return the three amounts stored in DB, in that order, or null on error
      */
-    public static int retrieveWallCollisionCount(Connection c) {
+    public static long[] retrieveCounts(Connection c) {
         try {
-            preparedStatement = c.prepareStatement("SELECT wall_collision_count FROM statistics");
-            ResultSet resultSet = preparedStatement.executeQuery();
-            resultSet.next();
-            return resultSet.getInt("wall_collision_count");
+            // In append mode, whatever is not rolled up yet counts too. One statement, so it never sees a rollup half done
+            PreparedStatement preparedStatement = prepare(c, append
+                    ? "SELECT s.sphere_count + d.sphere_count AS sphere_count, s.sphere_collision_count + d.sphere_collision_count AS sphere_collision_count, "
+                    + "s.wall_collision_count + d.wall_collision_count AS wall_collision_count FROM statistics s CROSS JOIN "
+                    + "(SELECT COALESCE(SUM(sphere_count), 0) AS sphere_count, COALESCE(SUM(sphere_collision_count), 0) AS sphere_collision_count, "
+                    + "COALESCE(SUM(wall_collision_count), 0) AS wall_collision_count FROM statistics_deltas) d"
+                    : "SELECT sphere_count, sphere_collision_count, wall_collision_count FROM statistics");
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return null;
+                }
+                succeeded();
+                return new long[] {
+                        resultSet.getLong("sphere_count"),
+                        resultSet.getLong("sphere_collision_count"),
+                        resultSet.getLong("wall_collision_count")
+                };
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
-            return -1;
+            failed(e);
+            return null;
+        }
+    }
+
+    /**
+     * Prepare a statement on the given connection, or reuse the one prepared for the same SQL before.
+     * Statements prepared on an older connection are dropped along with it. Must be called on the database thread
+     * @param c connection to the database
+     * @param sql statement to prepare
+     * @return the prepared statement, with the query timeout set
+     */
+    private static PreparedStatement prepare(Connection c, String sql) throws SQLException {
+        if (c != preparedOn) {
+            statements.clear();
+            preparedOn = c;
+        }
+        PreparedStatement preparedStatement = statements.get(sql);
+        if (preparedStatement == null || preparedStatement.isClosed()) {
+            preparedStatement = c.prepareStatement(sql);
+            preparedStatement.setQueryTimeout(QUERY_TIMEOUT);
+            statements.put(sql, preparedStatement);
         }
+        return preparedStatement;
     }
-}
\ No newline at end of file
+}
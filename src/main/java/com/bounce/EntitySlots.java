@@ -0,0 +1,84 @@
+package com.bounce;
+
+import java.util.Arrays;
+
+/**
+ * Stable integer IDs for the spheres in the world, mapped to their current index in the world's densely packed arrays.
+ * The arrays themselves are kept free of holes by swap-remove: deleting a sphere moves the last one into its place.
+ * That reorders the spheres, so an index is only good until the next deletion, but an ID stays the same for as long as the sphere is in the world.
+ * Freed IDs go on a free list and are handed out again, so the slot array only ever grows to the most spheres alive at once.
+ * Every operation is constant time. Only used by the simulation thread.
+ */
+public class EntitySlots {
+    // Index of every ID in the dense arrays. For a free ID, the next free ID instead, encoded as -2 - id (-1 ends the list)
+    private int[] indexOf = new int[0];
+    // ID of the sphere at every index in the dense arrays
+    private int[] idOf = new int[0];
+    // Amount of IDs ever handed out, i.e. in use or on the free list
+    private int slots = 0;
+    // First ID on the free list, or -1
+    private int freeHead = -1;
+    // Amount of spheres alive
+    private int count = 0;
+
+    /**
+     * Hand out an ID for a new sphere, placed at the end of the dense arrays
+     * @return the new sphere's ID
+     */
+    public int add() {
+        int id;
+        if (freeHead >= 0) {
+            id = freeHead;
+            freeHead = -2 - indexOf[id];
+        } else {
+            if (slots == indexOf.length) {
+                indexOf = Arrays.copyOf(indexOf, Math.max(16, slots * 2));
+                idOf = Arrays.copyOf(idOf, indexOf.length);
+            }
+            id = slots++;
+        }
+        indexOf[id] = count;
+        idOf[count] = id;
+        count++;
+        return id;
+    }
+
+    /**
+     * Free a sphere's ID, moving the last sphere into its index. The caller has to move the sphere's state the same way
+     * @param id ID of the sphere to remove
+     * @return the index that was freed, which the old last sphere now takes; or -1 if the ID is not in use
+     */
+    public int remove(int id) {
+        int index = indexOf(id);
+        if (index < 0) {
+            return -1;
+        }
+        count--;
+        int lastId = idOf[count];
+        idOf[index] = lastId;
+        indexOf[lastId] = index;
+        indexOf[id] = -2 - freeHead;
+        freeHead = id;
+        return index;
+    }
+
+    /**
+     * @param id ID of a sphere
+     * @return its current index in the dense arrays, or -1 if the ID is not in use
+     */
+    public int indexOf(int id) {
+        if (id < 0 || id >= slots || indexOf[id] < 0) {
+            return -1;
+        }
+        return indexOf[id];
+    }
+
+    /**
+     * Free every ID at once
+     */
+    public void clear() {
+        slots = 0;
+        freeHead = -1;
+        count = 0;
+    }
+}
@@ -0,0 +1,403 @@
+package com.bounce;
+
+import javafx.geometry.Bounds;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Alternative to the fixed-step physics, selected on launch with -Dbounce.engine=event.
+ * Spheres move in straight lines at constant speed between bounces, so the exact time of every wall and sphere collision can be computed ahead of time.
+ * This engine keeps those predictions in a priority queue and jumps straight from one event to the next, instead of polling every sphere on every tick.
+ * Spheres can never tunnel through each other or the walls, and when nothing collides, a tick costs next to nothing apart from rendering.
+ * Times are measured in seconds, as velocities are in pixels per second.
+ * To avoid predicting collisions between spheres that are nowhere near each other, the canvas is split in cells as wide as the largest possible sphere.
+ * Only spheres in neighbouring cells are ever predicted against each other, and a sphere crossing into another cell is an event in itself.
+ */
+public class EventDrivenEngine {
+    // Kinds of events
+    private static final int PAIR = 0;
+    private static final int WALL_X = 1;
+    private static final int WALL_Y = 2;
+    private static final int CELL = 3;
+
+    // Safety net so that a pathological pile of simultaneous contacts cannot freeze the simulation thread
+    private static final int MAX_EVENTS_PER_SPHERE_PER_TICK = 64;
+
+    private final PriorityQueue<Event> queue = new PriorityQueue<>();
+    // Current time of the engine, in seconds
+    private double time = 0;
+
+    // Time at which the position in the store is valid. Spheres are only moved forward when they take part in an event, or for rendering
+    private double[] validAt = new double[0];
+    // Bumped whenever a sphere changes direction, which invalidates every event predicted for it before that
+    private int[] version = new int[0];
+
+    // Canvas bounds the events were predicted for
+    private double minX;
+    private double minY;
+    private double maxX;
+    private double maxY;
+
+    // Grid of cells. cellMembers[c] holds the spheres in cell c, cellSize[c] how many there are
+    private final double cellWidth = CanvasController.MAX_SPHERE_RADIUS * 2.0;
+    private int columns = 1;
+    private int rows = 1;
+    private int[][] cellMembers = new int[0][];
+    private int[] cellSize = new int[0];
+    // Cell of every sphere, and its position inside that cell's member list
+    private int[] cellX = new int[0];
+    private int[] cellY = new int[0];
+    private int[] cellSlot = new int[0];
+
+    // Amount of sphere pairs predicted during the last tick
+    private int pairsPredicted = 0;
+
+    private BodyStore store;
+    private int count;
+    private int[] wallHits;
+    private int[] sphereHits;
+
+    // Getter
+    public int getPairsPredicted() {
+        return pairsPredicted;
+    }
+
+    /**
+     * Forget every prediction and start over from the current state of the store.
+     * Must be called whenever spheres are added or removed, or the canvas is resized.
+     * @param store state of every sphere
+     * @param count amount of spheres
+     * @param bounds layout bounds of the canvas
+     */
+    public void reset(BodyStore store, int count, Bounds bounds) {
+        this.store = store;
+        this.count = count;
+        minX = bounds.getMinX();
+        minY = bounds.getMinY();
+        maxX = bounds.getMaxX();
+        maxY = bounds.getMaxY();
+        queue.clear();
+        time = 0;
+        if (validAt.length < count) {
+            int capacity = Math.max(count, validAt.length * 2);
+            validAt = new double[capacity];
+            version = new int[capacity];
+            cellX = new int[capacity];
+            cellY = new int[capacity];
+            cellSlot = new int[capacity];
+        }
+        Arrays.fill(validAt, 0, count, 0);
+
+        columns = Math.max(1, (int) Math.ceil((maxX - minX) / cellWidth));
+        rows = Math.max(1, (int) Math.ceil((maxY - minY) / cellWidth));
+        if (cellMembers.length != columns * rows) {
+            cellMembers = new int[columns * rows][];
+            cellSize = new int[columns * rows];
+        } else {
+            Arrays.fill(cellSize, 0);
+        }
+
+        for (int i = 0; i < count; i++) {
+            // If the sphere has somehow managed to break out of bounds, force it back on the screen
+            double r = store.getRadius(i);
+            store.setX(i, Math.min(Math.max(store.getX(i), minX + r), maxX - r));
+            store.setY(i, Math.min(Math.max(store.getY(i), minY + r), maxY - r));
+            insert(i, column(store.getX(i)), row(store.getY(i)));
+        }
+        // Only once every sphere is in its cell can pairs be predicted
+        for (int i = 0; i < count; i++) {
+            predict(i);
+        }
+    }
+
+    /**
+     * Process every event up to the end of the tick, then bring every sphere's position in the store up to that time, for rendering
+     * @param dt length of the tick, in seconds
+     * @param wallHits receives the wall collisions of every sphere during the tick
+     * @param sphereHits receives the sphere collisions during the tick, each counted on one of the two spheres only
+     */
+    public void advance(double dt, int[] wallHits, int[] sphereHits) {
+        this.wallHits = wallHits;
+        this.sphereHits = sphereHits;
+        Arrays.fill(wallHits, 0, count, 0);
+        Arrays.fill(sphereHits, 0, count, 0);
+        pairsPredicted = 0;
+
+        double end = time + dt;
+        long budget = (long) MAX_EVENTS_PER_SPHERE_PER_TICK * Math.max(1, count);
+        while (!queue.isEmpty() && queue.peek().time <= end && budget-- > 0) {
+            Event event = queue.poll();
+            if (!event.isValid()) {
+                continue;
+            }
+            time = Math.max(time, event.time);
+            switch (event.type) {
+                case PAIR -> bounce(event.a, event.b);
+                case WALL_X -> bounceOffWall(event.a, true);
+                case WALL_Y -> bounceOffWall(event.a, false);
+                case CELL -> crossCell(event.a, event.b);
+            }
+        }
+        time = end;
+
+        // Interpolate every sphere to the end of the tick. Events stay valid, as trajectories do not change
+        for (int i = 0; i < count; i++) {
+            moveTo(i, time);
+        }
+
+        // Stale predictions pile up in the queue; drop them once in a while
+        if (queue.size() > 16 * count + 1024) {
+            queue.removeIf(event -> !event.isValid());
+        }
+    }
+
+    /**
+     * Elastic collision between two spheres, with masses proportional to their area
+     */
+    private void bounce(int a, int b) {
+        moveTo(a, time);
+        moveTo(b, time);
+        double dx = store.getX(b) - store.getX(a);
+        double dy = store.getY(b) - store.getY(a);
+        double dvx = store.getVX(b) - store.getVX(a);
+        double dvy = store.getVY(b) - store.getVY(a);
+        double dvdr = dx * dvx + dy * dvy;
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if (distance > 0 && dvdr < 0) {
+            double massA = store.getRadius(a) * store.getRadius(a);
+            double massB = store.getRadius(b) * store.getRadius(b);
+            // Impulse along the line between the centres
+            double impulse = 2 * massA * massB * dvdr / ((massA + massB) * distance);
+            double impulseX = impulse * dx / distance;
+            double impulseY = impulse * dy / distance;
+            store.setVX(a, store.getVX(a) + impulseX / massA);
+            store.setVY(a, store.getVY(a) + impulseY / massA);
+            store.setVX(b, store.getVX(b) - impulseX / massB);
+            store.setVY(b, store.getVY(b) - impulseY / massB);
+        }
+        // Counted once per pair, on one of the two spheres, the same as the fixed-step engine does
+        sphereHits[a]++;
+        version[a]++;
+        version[b]++;
+        predict(a);
+        predict(b);
+    }
+
+    /**
+     * Invert the direction of a sphere touching a wall
+     */
+    private void bounceOffWall(int i, boolean vertical) {
+        moveTo(i, time);
+        if (vertical) {
+            store.setVX(i, -store.getVX(i));
+        } else {
+            store.setVY(i, -store.getVY(i));
+        }
+        wallHits[i]++;
+        version[i]++;
+        predict(i);
+    }
+
+    /**
+     * Move a sphere into a neighbouring cell, and predict collisions with the spheres it is now close to
+     * @param direction 0 left, 1 right, 2 up, 3 down
+     */
+    private void crossCell(int i, int direction) {
+        moveTo(i, time);
+        int newX = cellX[i] + (direction == 0 ? -1 : direction == 1 ? 1 : 0);
+        int newY = cellY[i] + (direction == 2 ? -1 : direction == 3 ? 1 : 0);
+        remove(i);
+        insert(i, Math.min(Math.max(newX, 0), columns - 1), Math.min(Math.max(newY, 0), rows - 1));
+        predictPairs(i);
+        predictCell(i);
+    }
+
+    /**
+     * Predict every future event of a sphere from its current trajectory
+     */
+    private void predict(int i) {
+        predictWalls(i);
+        predictCell(i);
+        predictPairs(i);
+    }
+
+    private void predictWalls(int i) {
+        double r = store.getRadius(i);
+        double vx = store.getVX(i);
+        double vy = store.getVY(i);
+        double x = positionX(i, time);
+        double y = positionY(i, time);
+        if (vx > 0) {
+            schedule(time + Math.max(0, (maxX - r - x) / vx), WALL_X, i, -1);
+        } else if (vx < 0) {
+            schedule(time + Math.max(0, (minX + r - x) / vx), WALL_X, i, -1);
+        }
+        if (vy > 0) {
+            schedule(time + Math.max(0, (maxY - r - y) / vy), WALL_Y, i, -1);
+        } else if (vy < 0) {
+            schedule(time + Math.max(0, (minY + r - y) / vy), WALL_Y, i, -1);
+        }
+    }
+
+    /**
+     * Predict when a sphere leaves its cell. The outermost cells extend as far as needed, since the walls stop spheres first
+     */
+    private void predictCell(int i) {
+        double vx = store.getVX(i);
+        double vy = store.getVY(i);
+        double x = positionX(i, time);
+        double y = positionY(i, time);
+        double exit = Double.POSITIVE_INFINITY;
+        int direction = -1;
+        if (vx < 0 && cellX[i] > 0) {
+            exit = (minX + cellX[i] * cellWidth - x) / vx;
+            direction = 0;
+        } else if (vx > 0 && cellX[i] < columns - 1) {
+            exit = (minX + (cellX[i] + 1) * cellWidth - x) / vx;
+            direction = 1;
+        }
+        if (vy < 0 && cellY[i] > 0) {
+            double exitY = (minY + cellY[i] * cellWidth - y) / vy;
+            if (exitY < exit) {
+                exit = exitY;
+                direction = 2;
+            }
+        } else if (vy > 0 && cellY[i] < rows - 1) {
+            double exitY = (minY + (cellY[i] + 1) * cellWidth - y) / vy;
+            if (exitY < exit) {
+                exit = exitY;
+                direction = 3;
+            }
+        }
+        if (direction >= 0) {
+            schedule(time + Math.max(0, exit), CELL, i, direction);
+        }
+    }
+
+    /**
+     * Predict collisions between a sphere and every sphere in its own and the neighbouring cells
+     */
+    private void predictPairs(int i) {
+        for (int cx = Math.max(0, cellX[i] - 1); cx <= Math.min(columns - 1, cellX[i] + 1); cx++) {
+            for (int cy = Math.max(0, cellY[i] - 1); cy <= Math.min(rows - 1, cellY[i] + 1); cy++) {
+                int cell = cy * columns + cx;
+                for (int k = 0; k < cellSize[cell]; k++) {
+                    int j = cellMembers[cell][k];
+                    if (j != i) {
+                        predictPair(i, j);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Solve for the time at which the distance between two moving spheres equals the sum of their radii
+     */
+    private void predictPair(int a, int b) {
+        pairsPredicted++;
+        double dx = positionX(b, time) - positionX(a, time);
+        double dy = positionY(b, time) - positionY(a, time);
+        double dvx = store.getVX(b) - store.getVX(a);
+        double dvy = store.getVY(b) - store.getVY(a);
+        double dvdr = dx * dvx + dy * dvy;
+        // Moving apart (or not moving relative to each other at all); they will never collide
+        if (dvdr >= 0) {
+            return;
+        }
+        double dvdv = dvx * dvx + dvy * dvy;
+        double drdr = dx * dx + dy * dy;
+        double sigma = store.getRadius(a) + store.getRadius(b);
+        // Already overlapping and still approaching, e.g. spawned on top of each other: bounce right away
+        if (drdr < sigma * sigma) {
+            schedule(time, PAIR, a, b);
+            return;
+        }
+        double d = (dvdr * dvdr) - dvdv * (drdr - sigma * sigma);
+        if (d < 0) {
+            return;
+        }
+        schedule(time + (-(dvdr + Math.sqrt(d)) / dvdv), PAIR, a, b);
+    }
+
+    private void schedule(double at, int type, int a, int b) {
+        queue.add(new Event(at, type, a, b));
+    }
+
+    /**
+     * Bring a sphere's position in the store forward to a given time
+     */
+    private void moveTo(int i, double at) {
+        store.setX(i, positionX(i, at));
+        store.setY(i, positionY(i, at));
+        validAt[i] = at;
+    }
+
+    private double positionX(int i, double at) {
+        return store.getX(i) + store.getVX(i) * (at - validAt[i]);
+    }
+
+    private double positionY(int i, double at) {
+        return store.getY(i) + store.getVY(i) * (at - validAt[i]);
+    }
+
+    private int column(double x) {
+        return Math.min(Math.max((int) ((x - minX) / cellWidth), 0), columns - 1);
+    }
+
+    private int row(double y) {
+        return Math.min(Math.max((int) ((y - minY) / cellWidth), 0), rows - 1);
+    }
+
+    private void insert(int i, int x, int y) {
+        int cell = y * columns + x;
+        if (cellMembers[cell] == null) {
+            cellMembers[cell] = new int[8];
+        } else if (cellSize[cell] == cellMembers[cell].length) {
+            cellMembers[cell] = Arrays.copyOf(cellMembers[cell], cellSize[cell] * 2);
+        }
+        cellMembers[cell][cellSize[cell]] = i;
+        cellSlot[i] = cellSize[cell]++;
+        cellX[i] = x;
+        cellY[i] = y;
+    }
+
+    private void remove(int i) {
+        int cell = cellY[i] * columns + cellX[i];
+        // Swap the last member of the cell into the removed sphere's slot
+        int last = cellMembers[cell][--cellSize[cell]];
+        cellMembers[cell][cellSlot[i]] = last;
+        cellSlot[last] = cellSlot[i];
+    }
+
+    /**
+     * A predicted event. Remembers the versions of the spheres involved, so it can be told apart from outdated predictions
+     */
+    private class Event implements Comparable<Event> {
+        private final double time;
+        private final int type;
+        private final int a;
+        private final int b;
+        private final int versionA;
+        private final int versionB;
+
+        Event(double time, int type, int a, int b) {
+            this.time = time;
+            this.type = type;
+            this.a = a;
+            this.b = b;
+            this.versionA = version[a];
+            this.versionB = type == PAIR ? version[b] : 0;
+        }
+
+        boolean isValid() {
+            return a < count && version[a] == versionA && (type != PAIR || (b < count && version[b] == versionB));
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            return Double.compare(time, other.time);
+        }
+    }
+}
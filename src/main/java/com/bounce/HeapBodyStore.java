@@ -0,0 +1,107 @@
+package com.bounce;
+
+import java.util.Arrays;
+
+/**
+ * BodyStore backed by one primitive array per field on the Java heap
+ */
+public class HeapBodyStore implements BodyStore {
+    private double[] x = new double[0];
+    private double[] y = new double[0];
+    private double[] vx = new double[0];
+    private double[] vy = new double[0];
+    private double[] radius = new double[0];
+    // Index into the world's colour palette
+    private int[] colour = new int[0];
+
+    @Override
+    public int capacity() {
+        return x.length;
+    }
+
+    @Override
+    public void grow(int capacity) {
+        if (capacity <= x.length) {
+            return;
+        }
+        capacity = Math.max(capacity, x.length * 2);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        vx = Arrays.copyOf(vx, capacity);
+        vy = Arrays.copyOf(vy, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+        colour = Arrays.copyOf(colour, capacity);
+    }
+
+    @Override
+    public void move(int from, int to) {
+        x[to] = x[from];
+        y[to] = y[from];
+        vx[to] = vx[from];
+        vy[to] = vy[from];
+        radius[to] = radius[from];
+        colour[to] = colour[from];
+    }
+
+    // Getters
+    @Override
+    public double getX(int i) {
+        return x[i];
+    }
+
+    @Override
+    public double getY(int i) {
+        return y[i];
+    }
+
+    @Override
+    public double getVX(int i) {
+        return vx[i];
+    }
+
+    @Override
+    public double getVY(int i) {
+        return vy[i];
+    }
+
+    @Override
+    public double getRadius(int i) {
+        return radius[i];
+    }
+
+    @Override
+    public int getColour(int i) {
+        return colour[i];
+    }
+
+    // Setters
+    @Override
+    public void setX(int i, double x) {
+        this.x[i] = x;
+    }
+
+    @Override
+    public void setY(int i, double y) {
+        this.y[i] = y;
+    }
+
+    @Override
+    public void setVX(int i, double vx) {
+        this.vx[i] = vx;
+    }
+
+    @Override
+    public void setVY(int i, double vy) {
+        this.vy[i] = vy;
+    }
+
+    @Override
+    public void setRadius(int i, double radius) {
+        this.radius[i] = radius;
+    }
+
+    @Override
+    public void setColour(int i, int colour) {
+        this.colour[i] = colour;
+    }
+}
@@ -6,6 +6,7 @@ package com.bounce;
  */
 public class Launcher {
     public static void main(String[] args) {
+        StartupTimeline.mark("launched");
         Canvas.main(args);
     }
 }
@@ -0,0 +1,31 @@
+package com.bounce;
+
+import javafx.scene.paint.Color;
+import javafx.scene.paint.PhongMaterial;
+
+import java.util.HashMap;
+
+/**
+ * Flyweight cache of sphere materials, so that every sphere of the same colour shares one PhongMaterial.
+ * Previously every sphere created its own, which meant one more material for the GPU to upload per sphere,
+ * even when hundreds of them were the colour left in the picker. Only used on the FX thread.
+ */
+public class MaterialCache {
+    private static final HashMap<Color, PhongMaterial> materials = new HashMap<>();
+
+    private MaterialCache() {
+    }
+
+    /**
+     * Find the material for a given colour, creating it the first time it is needed
+     * @param colour diffuse colour of the material
+     * @return the material shared by every sphere of that colour
+     */
+    public static PhongMaterial get(Color colour) {
+        return materials.computeIfAbsent(colour, c -> {
+            PhongMaterial material = new PhongMaterial();
+            material.setDiffuseColor(c);
+            return material;
+        });
+    }
+}
@@ -0,0 +1,219 @@
+package com.bounce;
+
+import javafx.scene.Group;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.layout.AnchorPane;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.MeshView;
+import javafx.scene.shape.TriangleMesh;
+import javafx.scene.shape.VertexFormat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Keeps the 3D look of the Sphere nodes, but packs every sphere sharing a colour into a single MeshView, backed by a single TriangleMesh.
+ * Each pulse only rewrites the vertex positions of every mesh in bulk, so thousands of identical spheres collapse into one node,
+ * one material (shared with the Sphere nodes through the MaterialCache) and one draw call per colour. The amount of nodes and materials in the scene stays flat as spheres are added.
+ * Each sphere is a copy of the same low-poly template, scaled to its radius and moved to its position. Normals only depend on the template,
+ * so they are only written when the amount of spheres in a mesh changes.
+ */
+public class MeshRenderer implements SphereRenderer {
+    // Rings from pole to pole, and segments around, of the template sphere. Far fewer than the 64 divisions of a Sphere node
+    private static final int RINGS = 8;
+    private static final int SEGMENTS = 16;
+    // Unit sphere every sphere is copied from. Point i is at TEMPLATE[i * 3] up to TEMPLATE[i * 3 + 2]; also its own normal
+    private static final float[] TEMPLATE = createTemplate();
+    private static final int POINTS_PER_SPHERE = TEMPLATE.length / 3;
+    // Faces of the template, as point indices. Three per triangle, wound counter-clockwise seen from outside like the Sphere node's
+    private static final int[] TEMPLATE_FACES = createTemplateFaces();
+
+    // Group holding one MeshView per colour
+    private final Group layer = new Group();
+    // One batch per colour, in the order they were first drawn
+    private final HashMap<Color, Batch> batches = new HashMap<>();
+    private final ArrayList<Batch> batchList = new ArrayList<>();
+    // Menu shown when right-clicking a sphere. Only one at a time
+    private final ContextMenu menu = new ContextMenu();
+
+    public MeshRenderer() {
+        layer.setOnContextMenuRequested(contextMenuEvent -> SphereRenderer.showDeleteMenu(menu, layer, contextMenuEvent));
+    }
+
+    @Override
+    public void attach(AnchorPane canvas, List<NewSphere> bodies) {
+        // Behind everything else, so that spheres do not appear on top of the control panel
+        canvas.getChildren().add(0, layer);
+    }
+
+    @Override
+    public void detach(AnchorPane canvas, List<NewSphere> bodies) {
+        canvas.getChildren().remove(layer);
+        clear();
+    }
+
+    // Nothing is kept per sphere here
+    @Override
+    public void show(NewSphere body) {
+    }
+
+    @Override
+    public void hide(NewSphere body, int index) {
+    }
+
+    @Override
+    public void begin() {
+        for (Batch batch : batchList) {
+            batch.count = 0;
+        }
+    }
+
+    @Override
+    public void draw(NewSphere body, double x, double y, double radius, Color colour) {
+        Batch batch = batches.get(colour);
+        if (batch == null) {
+            batch = new Batch(colour);
+            batches.put(colour, batch);
+            batchList.add(batch);
+            layer.getChildren().add(batch.view);
+        }
+        batch.add((float) x, (float) y, (float) radius);
+    }
+
+    @Override
+    public void end() {
+        for (Batch batch : batchList) {
+            batch.upload();
+        }
+    }
+
+    @Override
+    public void clear() {
+        begin();
+        end();
+    }
+
+    /**
+     * Points of a unit sphere: the north pole, RINGS - 1 rings of SEGMENTS points each, then the south pole
+     */
+    private static float[] createTemplate() {
+        float[] points = new float[(2 + (RINGS - 1) * SEGMENTS) * 3];
+        int p = 0;
+        points[p++] = 0;
+        points[p++] = -1;
+        points[p++] = 0;
+        for (int ring = 1; ring < RINGS; ring++) {
+            double latitude = Math.PI * ring / RINGS;
+            for (int segment = 0; segment < SEGMENTS; segment++) {
+                double longitude = 2 * Math.PI * segment / SEGMENTS;
+                points[p++] = (float) (Math.sin(latitude) * Math.cos(longitude));
+                points[p++] = (float) -Math.cos(latitude);
+                points[p++] = (float) (Math.sin(latitude) * Math.sin(longitude));
+            }
+        }
+        points[p++] = 0;
+        points[p++] = 1;
+        points[p] = 0;
+        return points;
+    }
+
+    /**
+     * Triangles of the template: a fan around each pole, and two triangles per quad in between
+     */
+    private static int[] createTemplateFaces() {
+        int[] faces = new int[(SEGMENTS * 2 + (RINGS - 2) * SEGMENTS * 2) * 3];
+        int south = 1 + (RINGS - 1) * SEGMENTS;
+        int f = 0;
+        for (int segment = 0; segment < SEGMENTS; segment++) {
+            int next = (segment + 1) % SEGMENTS;
+            // North cap
+            faces[f++] = 0;
+            faces[f++] = 1 + segment;
+            faces[f++] = 1 + next;
+            // Bands between rings
+            for (int ring = 1; ring < RINGS - 1; ring++) {
+                int top = 1 + (ring - 1) * SEGMENTS;
+                int bottom = top + SEGMENTS;
+                faces[f++] = top + segment;
+                faces[f++] = bottom + segment;
+                faces[f++] = top + next;
+                faces[f++] = bottom + segment;
+                faces[f++] = bottom + next;
+                faces[f++] = top + next;
+            }
+            // South cap
+            int last = 1 + (RINGS - 2) * SEGMENTS;
+            faces[f++] = south;
+            faces[f++] = last + next;
+            faces[f++] = last + segment;
+        }
+        return faces;
+    }
+
+    /**
+     * Every sphere of one colour, drawn as one mesh
+     */
+    private static class Batch {
+        private final TriangleMesh mesh = new TriangleMesh(VertexFormat.POINT_NORMAL_TEXCOORD);
+        private final MeshView view = new MeshView(mesh);
+        // Points of every sphere drawn this pulse
+        private float[] points = new float[0];
+        // Spheres drawn this pulse, and spheres the faces and normals are currently laid out for
+        private int count = 0;
+        private int laidOut = 0;
+
+        Batch(Color colour) {
+            view.setMaterial(MaterialCache.get(colour));
+            // Every vertex uses the same texture coordinate, as the material has no texture
+            mesh.getTexCoords().setAll(0, 0);
+        }
+
+        /**
+         * Append a copy of the template, scaled and moved into place
+         */
+        void add(float x, float y, float radius) {
+            if (points.length < (count + 1) * TEMPLATE.length) {
+                float[] grown = new float[Math.max((count + 1) * TEMPLATE.length, points.length * 2)];
+                System.arraycopy(points, 0, grown, 0, count * TEMPLATE.length);
+                points = grown;
+            }
+            int p = count * TEMPLATE.length;
+            for (int t = 0; t < TEMPLATE.length; t += 3) {
+                points[p++] = x + TEMPLATE[t] * radius;
+                points[p++] = y + TEMPLATE[t + 1] * radius;
+                points[p++] = TEMPLATE[t + 2] * radius;
+            }
+            count++;
+        }
+
+        /**
+         * Hand this pulse's points over to the mesh in bulk. Faces and normals are only rewritten when the amount of spheres changed
+         */
+        void upload() {
+            if (count != laidOut) {
+                float[] normals = new float[count * TEMPLATE.length];
+                int[] faces = new int[count * TEMPLATE_FACES.length * 3];
+                int f = 0;
+                for (int s = 0; s < count; s++) {
+                    System.arraycopy(TEMPLATE, 0, normals, s * TEMPLATE.length, TEMPLATE.length);
+                    int offset = s * POINTS_PER_SPHERE;
+                    for (int index : TEMPLATE_FACES) {
+                        // Point, normal and texture coordinate of the vertex
+                        faces[f++] = offset + index;
+                        faces[f++] = offset + index;
+                        faces[f++] = 0;
+                    }
+                }
+                // Points first, so that the new faces never refer to points that are not there yet
+                mesh.getPoints().setAll(points, 0, count * TEMPLATE.length);
+                mesh.getNormals().setAll(normals);
+                mesh.getFaces().setAll(faces);
+                mesh.getFaceSmoothingGroups().clear();
+                laidOut = count;
+            } else if (count > 0) {
+                mesh.getPoints().set(0, points, 0, count * TEMPLATE.length);
+            }
+        }
+    }
+}
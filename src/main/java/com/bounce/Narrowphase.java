@@ -0,0 +1,52 @@
+package com.bounce;
+
+import java.util.Optional;
+
+/**
+ * Exact collision test between one sphere and a batch of candidates handed over by the broadphase.
+ * The SIMD implementation needs the incubating jdk.incubator.vector module, which is only available when the app is launched with
+ * --add-modules jdk.incubator.vector, and is only part of builds made with the "vector" Maven profile.
+ * Without either (or with -Dbounce.simd=false) the scalar implementation is used instead.
+ * Both give exactly the same results, as the SIMD kernel performs the same multiplications and additions, just several lanes at a time.
+ */
+public interface Narrowphase {
+
+    /**
+     * Find which candidates a sphere collides with.
+     * Contacts are written in the same order as the candidates, so that results do not depend on the implementation.
+     * @param x centre of the sphere on the X-axis
+     * @param y centre of the sphere on the Y-axis
+     * @param radius radius of the sphere
+     * @param candidates indices of the candidate spheres
+     * @param from first candidate to test
+     * @param to one past the last candidate to test
+     * @param otherX centre of every sphere on the X-axis
+     * @param otherY centre of every sphere on the Y-axis
+     * @param otherRadius radius of every sphere
+     * @param contacts receives the indices of the colliding candidates. Must have room for to - from entries
+     * @return amount of contacts written
+     */
+    int findContacts(double x, double y, double radius, int[] candidates, int from, int to,
+                     double[] otherX, double[] otherY, double[] otherRadius, int[] contacts);
+
+    /**
+     * Create the fastest narrowphase available on this JVM
+     * @return the SIMD narrowphase if the Vector API can be used, the scalar one otherwise
+     */
+    static Narrowphase create() {
+        Optional<Module> vector = ModuleLayer.boot().findModule("jdk.incubator.vector");
+        if (vector.isPresent() && !"false".equalsIgnoreCase(System.getProperty("bounce.simd"))) {
+            try {
+                // Not in module-info, so that the default build never touches the incubating module. Read it now that it is there
+                Narrowphase.class.getModule().addReads(vector.get());
+                // Loaded by name so that the class (and with it the Vector API) is never linked when the module is missing
+                return (Narrowphase) Class.forName("com.bounce.VectorNarrowphase").getDeclaredConstructor().newInstance();
+            } catch (ClassNotFoundException e) {
+                // Built without the "vector" profile
+            } catch (ReflectiveOperationException | LinkageError e) {
+                e.printStackTrace();
+            }
+        }
+        return new ScalarNarrowphase();
+    }
+}
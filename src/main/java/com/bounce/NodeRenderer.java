@@ -0,0 +1,156 @@
+package com.bounce;
+
+import javafx.collections.ObservableList;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.layout.AnchorPane;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Sphere;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows every sphere as its own 3D Sphere node, moved into place once per pulse. This is how spheres have always been drawn.
+ * Looks the best, but the scene graph has to sync and pick every node on every pulse, which dominates the frame past a few thousand spheres.
+ * The nodes live in their own Group layer behind the control panel rather than directly in the root pane:
+ * new spheres are appended to it without reordering anything, and clearing swaps the whole layer out instead of removing spheres one by one.
+ * Nodes are only created here, when a sphere is shown, and dropped again when the sphere is deleted or another renderer takes over.
+ * A single right-click handler on the layer asks the world which sphere is under the cursor, like the other renderers do, instead of one handler per node.
+ */
+public class NodeRenderer implements SphereRenderer {
+    // Menu shown when right-clicking a sphere. Only one at a time
+    private final ContextMenu menu = new ContextMenu();
+    // Layer holding every Sphere node. Replaced wholesale on clear
+    private Group layer = newLayer();
+    // Root pane the layer is attached to, if any
+    private AnchorPane canvas = null;
+
+    @Override
+    public void attach(AnchorPane canvas, List<NewSphere> bodies) {
+        this.canvas = canvas;
+        layer.getChildren().setAll(nodesFor(bodies, bodies.size()));
+        // Behind everything else, so that spheres do not appear on top of the control panel
+        canvas.getChildren().add(0, layer);
+    }
+
+    @Override
+    public void detach(AnchorPane canvas, List<NewSphere> bodies) {
+        canvas.getChildren().remove(layer);
+        layer = newLayer();
+        this.canvas = null;
+        // Let go of the nodes, which the next renderer has no use for
+        for (NewSphere body : bodies) {
+            body.sphere = null;
+        }
+    }
+
+    @Override
+    public void show(NewSphere body) {
+        layer.getChildren().add(nodeFor(body, layer.getChildren().size() + 1));
+    }
+
+    @Override
+    public void showAll(List<NewSphere> bodies) {
+        // One change to the layer, instead of one per sphere
+        layer.getChildren().addAll(nodesFor(bodies, layer.getChildren().size() + bodies.size()));
+    }
+
+    /**
+     * Swap-remove, like the world: the last node is moved into the deleted one's place rather than shifting every node after it down.
+     * Removing a node by itself means finding it first, which took a noticeable moment with tens of thousands of spheres on every delete
+     */
+    @Override
+    public void hide(NewSphere body, int index) {
+        Sphere sphere = body.sphere;
+        body.sphere = null;
+        ObservableList<Node> children = layer.getChildren();
+        if (index >= children.size() || children.get(index) != sphere) {
+            // Out of step with the world, which should not happen. Fall back to searching for the node
+            children.remove(sphere);
+            return;
+        }
+        // Take the last node off first, as a node may not be in the layer twice
+        Node last = children.remove(children.size() - 1);
+        if (index < children.size()) {
+            children.set(index, last);
+        }
+    }
+
+    @Override
+    public void begin() {
+    }
+
+    @Override
+    public void draw(NewSphere body, double x, double y, double radius, Color colour) {
+        // A sphere deleted since the frame was completed has no node anymore
+        if (body.sphere != null) {
+            body.sphere.setLayoutX(x);
+            body.sphere.setLayoutY(y);
+        }
+    }
+
+    @Override
+    public void end() {
+    }
+
+    /**
+     * Swap in an empty layer in place of the current one. A single change on the root pane,
+     * instead of one removal per sphere, which froze the UI for seconds with tens of thousands of spheres
+     */
+    @Override
+    public void clear() {
+        Group empty = newLayer();
+        if (canvas != null) {
+            canvas.getChildren().set(canvas.getChildren().indexOf(layer), empty);
+        }
+        layer = empty;
+    }
+
+    /**
+     * Level of detail: pick how finely a sphere is tessellated.
+     * The default of 64 divisions is far more than a 10 pixel sphere can show, and adds up to millions of triangles with thousands of spheres.
+     * About one division per pixel of radius keeps the outline smooth; past a thousand spheres on screen the budget per sphere shrinks,
+     * since nobody can tell the difference in a crowd. Rounded to a multiple of 4, as Sphere does internally,
+     * so that spheres of the same size end up with the same divisions and can share JavaFX's cached mesh.
+     * @param radius on-screen radius of the sphere, in pixels
+     * @param bodyCount amount of spheres on screen
+     * @return the amount of divisions, between 8 and the default 64
+     */
+    static int divisionsFor(double radius, int bodyCount) {
+        double budget = Math.sqrt(1000.0 / Math.max(1000, bodyCount));
+        int divisions = (int) Math.round(radius * budget / 4) * 4;
+        return Math.max(8, Math.min(64, divisions));
+    }
+
+    /**
+     * Create the node of a sphere, sized, coloured and at its initial position
+     * @param body sphere to create the node for
+     * @param bodyCount amount of spheres on screen once it is shown, for its level of detail
+     * @return the node, also kept by the sphere
+     */
+    private static Sphere nodeFor(NewSphere body, int bodyCount) {
+        Sphere sphere = new Sphere(body.radius, divisionsFor(body.radius, bodyCount));
+        sphere.setLayoutX(body.x);
+        sphere.setLayoutY(body.y);
+        // Spheres of the same color share one material
+        sphere.setMaterial(MaterialCache.get(body.colour));
+        body.sphere = sphere;
+        return sphere;
+    }
+
+    private static List<Sphere> nodesFor(List<NewSphere> bodies, int bodyCount) {
+        ArrayList<Sphere> spheres = new ArrayList<>(bodies.size());
+        for (NewSphere body : bodies) {
+            spheres.add(nodeFor(body, bodyCount));
+        }
+        return spheres;
+    }
+
+    private Group newLayer() {
+        Group group = new Group();
+        group.setOnContextMenuRequested(contextMenuEvent -> SphereRenderer.showDeleteMenu(menu, group, contextMenuEvent));
+        return group;
+    }
+}
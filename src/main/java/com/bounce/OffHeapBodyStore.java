@@ -0,0 +1,154 @@
+package com.bounce;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * BodyStore backed by a single direct ByteBuffer outside the Java heap.
+ * The buffer is laid out as a structure of arrays: all X positions, then all Y positions, then both velocities, the radii and lastly the colours.
+ * Only the state kept here (44 bytes per sphere) leaves the heap. The simulation's scratch arrays (see SimulationWorld), the frames it hands
+ * to the FX thread and the NewSphere of every sphere stay on the heap, and take up more than the store does. So this does not make the app
+ * fit more spheres in a given heap; it keeps the state itself out of the collector's way, and lets it be grown without copying it on the heap.
+ * A ByteBuffer is indexed with an int, which bounds the store to MAX_CAPACITY spheres.
+ */
+public class OffHeapBodyStore implements BodyStore {
+    // Order of the double fields inside the buffer
+    private static final int X = 0;
+    private static final int Y = 1;
+    private static final int VX = 2;
+    private static final int VY = 3;
+    private static final int RADIUS = 4;
+    private static final int DOUBLE_FIELDS = 5;
+    private static final int BYTES_PER_SPHERE = DOUBLE_FIELDS * Double.BYTES + Integer.BYTES;
+    // Most spheres that fit in a single buffer
+    static final int MAX_CAPACITY = Integer.MAX_VALUE / BYTES_PER_SPHERE;
+
+    private ByteBuffer buffer = allocate(0);
+    private int capacity = 0;
+
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @throws IllegalArgumentException if more than MAX_CAPACITY spheres are asked for
+     */
+    @Override
+    public void grow(int capacity) {
+        if (capacity <= this.capacity) {
+            return;
+        }
+        if (capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("At most " + MAX_CAPACITY + " spheres fit off-heap, not " + capacity);
+        }
+        // Doubling stops short of the limit rather than going past it
+        capacity = (int) Math.min(MAX_CAPACITY, Math.max(capacity, this.capacity * 2L));
+        ByteBuffer grown = allocate(capacity);
+        // Copy every field block to its new offset, as the offsets depend on the capacity
+        for (int field = 0; field < DOUBLE_FIELDS; field++) {
+            grown.put(offset(field, capacity, 0), buffer, offset(field, this.capacity, 0), this.capacity * Double.BYTES);
+        }
+        grown.put(offset(DOUBLE_FIELDS, capacity, 0), buffer, offset(DOUBLE_FIELDS, this.capacity, 0), this.capacity * Integer.BYTES);
+        buffer = grown;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void move(int from, int to) {
+        for (int field = 0; field < DOUBLE_FIELDS; field++) {
+            set(field, to, get(field, from));
+        }
+        setColour(to, getColour(from));
+    }
+
+    // Getters
+    @Override
+    public double getX(int i) {
+        return get(X, i);
+    }
+
+    @Override
+    public double getY(int i) {
+        return get(Y, i);
+    }
+
+    @Override
+    public double getVX(int i) {
+        return get(VX, i);
+    }
+
+    @Override
+    public double getVY(int i) {
+        return get(VY, i);
+    }
+
+    @Override
+    public double getRadius(int i) {
+        return get(RADIUS, i);
+    }
+
+    @Override
+    public int getColour(int i) {
+        return buffer.getInt(colourOffset(i));
+    }
+
+    // Setters
+    @Override
+    public void setX(int i, double x) {
+        set(X, i, x);
+    }
+
+    @Override
+    public void setY(int i, double y) {
+        set(Y, i, y);
+    }
+
+    @Override
+    public void setVX(int i, double vx) {
+        set(VX, i, vx);
+    }
+
+    @Override
+    public void setVY(int i, double vy) {
+        set(VY, i, vy);
+    }
+
+    @Override
+    public void setRadius(int i, double radius) {
+        set(RADIUS, i, radius);
+    }
+
+    @Override
+    public void setColour(int i, int colour) {
+        buffer.putInt(colourOffset(i), colour);
+    }
+
+    private double get(int field, int i) {
+        return buffer.getDouble(offset(field, capacity, i));
+    }
+
+    private void set(int field, int i, double value) {
+        buffer.putDouble(offset(field, capacity, i), value);
+    }
+
+    private int colourOffset(int i) {
+        return offset(DOUBLE_FIELDS, capacity, 0) + i * Integer.BYTES;
+    }
+
+    /**
+     * Offset of a sphere's double field in a buffer of a given capacity. Worked out in long, so that it can never wrap around to another sphere's field;
+     * grow rejects any capacity past MAX_CAPACITY, so the result always fits in an int
+     * @param field one of the double fields, or DOUBLE_FIELDS for the start of the colours
+     */
+    private static int offset(int field, int capacity, int i) {
+        return (int) (((long) field * capacity + i) * Double.BYTES);
+    }
+
+    /**
+     * Allocate a buffer large enough for a given amount of spheres, in the platform's byte order so that reads are not swapped
+     */
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * BYTES_PER_SPHERE).order(ByteOrder.nativeOrder());
+    }
+}
@@ -0,0 +1,47 @@
+package com.bounce;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of candidate sphere pairs, stored as indices into the world's body list.
+ * Backed by a single int array (first index at even positions, second index at odd positions) so that
+ * filling it every frame does not allocate an object per pair.
+ */
+public class PairList {
+    private int[] pairs = new int[256];
+    private int size = 0;
+
+    /**
+     * Append a pair to the list
+     * @param a index of the first sphere
+     * @param b index of the second sphere
+     */
+    public void add(int a, int b) {
+        if ((size + 1) * 2 > pairs.length) {
+            pairs = Arrays.copyOf(pairs, pairs.length * 2);
+        }
+        pairs[size * 2] = a;
+        pairs[size * 2 + 1] = b;
+        size++;
+    }
+
+    // Getters
+    public int first(int pair) {
+        return pairs[pair * 2];
+    }
+
+    public int second(int pair) {
+        return pairs[pair * 2 + 1];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Empty the list without releasing the backing array, so it can be reused next frame
+     */
+    public void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,20 @@
+package com.bounce;
+
+/**
+ * Narrowphase testing one candidate at a time. Used whenever the Vector API is not available
+ */
+public class ScalarNarrowphase implements Narrowphase {
+
+    @Override
+    public int findContacts(double x, double y, double radius, int[] candidates, int from, int to,
+                            double[] otherX, double[] otherY, double[] otherRadius, int[] contacts) {
+        int found = 0;
+        for (int k = from; k < to; k++) {
+            int j = candidates[k];
+            if (SimulationWorld.checkCollision(x, y, radius, otherX[j], otherY[j], otherRadius[j])) {
+                contacts[found++] = j;
+            }
+        }
+        return found;
+    }
+}
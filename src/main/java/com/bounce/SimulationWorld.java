@@ -0,0 +1,1146 @@
+package com.bounce;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.geometry.Bounds;
+import javafx.scene.paint.Color;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Owns every sphere currently being simulated and advances all of them with a fixed timestep. Velocities are in pixels per second.
+ * Previously each NewSphere started its own AnimationTimer, so the FX pulse had to run one callback per sphere.
+ * Now the whole world is stepped in a fixed order on its own simulation thread.
+ * Spheres are spawned, deleted, cleared and sped up by submitting commands from any thread. The simulation thread applies them at the start of the next step,
+ * and then hands them to the FX thread to update the renderer, so the world's state is only ever changed by the thread stepping it.
+ * A single AnimationTimer on the FX thread only hands the latest completed positions to the SphereRenderer,
+ * so a slow frame of layout does not stall the physics, and a slow physics step does not drop rendered frames.
+ * Includes the logic behind the rudimentary physics simulation.
+ * The state of every sphere lives in a BodyStore (structure of arrays, on or off the heap) rather than in Sphere nodes.
+ * A step works on those arrays in phases (tentative positions, finding contacts, bouncing them, final positions),
+ * and only the final result is published to the renderer.
+ * All phases but the bouncing can be split across a ForkJoinPool with -Dbounce.parallel=true. In those, every sphere only ever writes its own entries,
+ * reading everybody else's from the previous phase, and contacts are bounced in a fixed order, so the parallel and single-threaded modes give bit-identical results
+ * for the same steps. Only a headless world (see advance) takes exactly the same steps every run; in real time, the clock decides how many are taken.
+ */
+public class SimulationWorld {
+    /* Every sphere registered in the world. This is also the order in which they are stepped.
+    Kept free of holes: deleting a sphere moves the last one into its place, so it is the order they were added in only until the first delete */
+    private final ArrayList<NewSphere> bodies = new ArrayList<>();
+    // Stable ID of every sphere, mapped to its current index in "bodies" and the store
+    private final EntitySlots slots = new EntitySlots();
+
+    // Timer on the FX thread that renders the latest completed frame. Started lazily when the first sphere is spawned. Null if headless
+    private final AnimationTimer pulse;
+    // Whether the world is only stepped by advance(), with no thread, timer or renderer of its own
+    private final boolean headless;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    // Thread running the physics. Started lazily when the first sphere is spawned, and parks while the world is empty
+    private volatile Thread simulationThread = null;
+    // Whether the simulation thread is parked until a command comes in, so that submitting one has to wake it up
+    private volatile boolean waiting = false;
+    // Commands submitted from any thread, applied by the simulation thread once per step
+    private final CommandQueue<Command> commands = new CommandQueue<>();
+    // Commands the simulation thread has applied, for the FX thread to follow up on the renderer once per pulse
+    private final CommandQueue<Command> applied = new CommandQueue<>();
+    // Physics steps per second. Set on launch with -Dbounce.tickRate
+    private final int tickRate = Math.max(1, Integer.getInteger("bounce.tickRate", 60));
+    // Simulated time covered by one step, in seconds. Always the same, whatever the tick rate and the display's refresh rate
+    private final double timestep = 1.0 / tickRate;
+    /* Most steps run back to back to catch up after the simulation thread falls behind (the machine was busy, or a step was slow).
+    Any time still owed after that is dropped, so a stall slows the world down briefly instead of making every following tick even longer */
+    private static final int MAX_SUBSTEPS = 5;
+    /* Velocities are kept in pixels per second. The direction vector typed into the control panel is still in pixels per frame,
+    as it was when spheres moved once per 60 Hz pulse, so it is scaled by this on the way in */
+    static final double DIRECTION_FRAME_RATE = 60.0;
+    // Layout bounds of the canvas. Nodes may only be read on the FX thread, so the pulse hands them over to the simulation thread
+    private volatile Bounds bounds = null;
+
+    /* Positions are handed from the simulation thread to the FX thread through three frames:
+    the simulation writes the back frame, then swaps it with "latest"; the FX thread swaps "latest" with its front frame whenever a new one is ready.
+    This way neither thread ever waits for the other, and the FX thread always reads a complete frame */
+    private Frame back = new Frame();
+    private Frame front = new Frame();
+    private final AtomicReference<Frame> latest = new AtomicReference<>(new Frame());
+    private final AtomicBoolean fresh = new AtomicBoolean(false);
+    // How far between the front frame's last two states the spheres were drawn on the last pulse. Used to find the sphere under the cursor
+    private double drawnAlpha = 1;
+    /* Draws the front frame on screen. Only touched on the FX thread. Chosen on launch with -Dbounce.renderer, and switchable from the Options tab.
+    Null if headless */
+    private SphereRenderer renderer;
+    // Collisions that happened since the last rendered frame. Drained by the FX thread, which updates the session counters
+    private final AtomicInteger pendingWallHits = new AtomicInteger();
+    private final AtomicInteger pendingSphereHits = new AtomicInteger();
+    // Plays the collision sounds on its own thread, so the FX thread only ever reports how many hits there were
+    private final CollisionAudio audio = new CollisionAudio();
+
+    // Broadphase that narrows sphere-to-sphere tests down to nearby spheres. Chosen on launch with -Dbounce.broadphase
+    private final Broadphase broadphase = Broadphase.fromName(System.getProperty("bounce.broadphase"));
+    // Amount of candidate pairs the narrowphase had to test on the last frame. Shows how well the broadphase is doing
+    private volatile int pairsTested = 0;
+    // Candidate pairs found by the broadphase this frame
+    private final PairList candidates = new PairList();
+
+    /* Random used for anything left blank in the control panel when spawning spheres.
+    Can be seeded with -Dbounce.seed so that two runs start out the same. Only headless runs stay the same from then on, see advance() */
+    private final Random random = Long.getLong("bounce.seed") != null ? new Random(Long.getLong("bounce.seed")) : new Random();
+
+    // Whether to split the physics step across several threads. Off by default
+    private final boolean parallel;
+    // Pool for the parallel mode, only created once it is first needed
+    private ForkJoinPool pool = null;
+    // Amount of spheres handled by one parallel task. Smaller ranges are not worth the scheduling overhead
+    private static final int GRAIN = 2048;
+
+    // State of every sphere, indexed like "bodies". Only touched by the simulation thread once a sphere is added. Chosen on launch with -Dbounce.store
+    private final BodyStore store = BodyStore.fromName(System.getProperty("bounce.store"));
+    /* Every distinct colour in use. The store only keeps an index into this list.
+    Only ever added to by the simulation thread when spawning, and a new colour is rare, so a copy-on-write list lets the FX thread read it while rendering
+    without taking the world's lock */
+    private final CopyOnWriteArrayList<Color> palette = new CopyOnWriteArrayList<>();
+
+    /* Event-driven engine, used instead of the fixed-step phases below when launched with -Dbounce.engine=event.
+    Its predictions are thrown away whenever spheres are added or removed, or the canvas changes size */
+    private final EventDrivenEngine eventEngine = "event".equalsIgnoreCase(System.getProperty("bounce.engine")) ? new EventDrivenEngine() : null;
+    private boolean eventEngineStale = true;
+    private Bounds eventEngineBounds = null;
+
+    // Exact collision test run on the broadphase's candidates. Uses SIMD when the Vector API is available
+    private final Narrowphase narrowphase = Narrowphase.create();
+
+    /* Position of every sphere at the start of the step, once forced back inside the canvas. Also where the FX thread draws it from.
+    These scratch arrays are the simulation thread's working memory, allocated once per growth of the store and reused by every step.
+    They are kept to what the phases cannot do without, as each one costs as much per sphere as a field of the store */
+    private double[] previousX = new double[0];
+    private double[] previousY = new double[0];
+    // Tentative state after walls and movement, before contacts
+    private double[] tentativeX = new double[0];
+    private double[] tentativeY = new double[0];
+    private double[] tentativeVX = new double[0];
+    private double[] tentativeVY = new double[0];
+    /* Circle enclosing everything a sphere sweeps over during the step: centred halfway along its path,
+    and as wide as its radius plus half the length of the path. Lets the broadphase and narrowphase cull swept pairs without any square roots */
+    private double[] sweptX = new double[0];
+    private double[] sweptY = new double[0];
+    private double[] sweptRadius = new double[0];
+    // Wall and sphere hits of every sphere during this step
+    private int[] wallHits = new int[0];
+    private int[] sphereHits = new int[0];
+    /* Candidate neighbours of every sphere with a higher index, so that each pair is only listed once.
+    Sphere i's neighbours are neighbours[neighbourStart[i]] up to neighbours[neighbourStart[i + 1]] */
+    private int[] neighbourStart = new int[1];
+    private int[] neighbours = new int[0];
+    /* Contacts found among those neighbours, stored in the same slots: sphere i's contacts are contactPartner[neighbourStart[i]]
+    up to contactPartner[neighbourStart[i] + contactCount[i]], each with the fraction of the step at which it happens */
+    private int[] contactCount = new int[0];
+    private int[] contactPartner = new int[0];
+    private double[] contactTime = new double[0];
+    // Fraction of the step at which every sphere first touches another one (above 1 if it touches nothing), and how far overlaps push it back
+    private double[] firstImpact = new double[0];
+    private double[] pushX = new double[0];
+    private double[] pushY = new double[0];
+
+    /**
+     * Create a world stepped in real time on its own thread, and drawn on the canvas. Set up with the -Dbounce launch options
+     */
+    public SimulationWorld() {
+        this(Boolean.getBoolean("bounce.parallel"), null);
+    }
+
+    /**
+     * Create a world stepped in real time and drawn on the canvas, or a headless one.
+     * A headless world has no thread, timer or renderer, and needs no FX toolkit: it is only stepped by advance(), a given amount of steps at a time.
+     * The real-time loop takes however many steps the clock says and drops whatever time it cannot catch up with, so two real-time runs never match.
+     * A headless run does: the same spheres and amount of steps give the same state down to the last bit, in the parallel mode as well
+     * @param parallel whether to split the physics step across several threads
+     * @param headlessBounds bounds to bounce the spheres in, for a headless world. Null for a real-time one, which follows the canvas
+     */
+    SimulationWorld(boolean parallel, Bounds headlessBounds) {
+        this.parallel = parallel;
+        headless = headlessBounds != null;
+        bounds = headlessBounds;
+        if (headless) {
+            pulse = null;
+            renderer = null;
+        } else {
+            pulse = new AnimationTimer() {
+                @Override
+                public void handle(long l) {
+                    render(l);
+                }
+            };
+            renderer = SphereRenderer.fromName(System.getProperty("bounce.renderer"));
+        }
+    }
+
+    // Getters
+    public Broadphase getBroadphase() {
+        return broadphase;
+    }
+
+    public int getPairsTested() {
+        return pairsTested;
+    }
+
+    public Random getRandom() {
+        return random;
+    }
+
+    public SphereRenderer getRenderer() {
+        return renderer;
+    }
+
+    // Setters
+    // Must be called on the FX thread. Attaching the new renderer to the canvas is up to the caller
+    public void setRenderer(SphereRenderer renderer) {
+        this.renderer = renderer;
+    }
+
+    /**
+     * Spawn a sphere, so that it gets stepped on every tick. Safe to call from any thread.
+     * Takes the position, radius, colour and direction it was created with as the initial state.
+     * It is put on the canvas on the first pulse after the simulation thread has added it to the world.
+     * @param body sphere to spawn
+     */
+    public void spawn(NewSphere body) {
+        spawn(List.of(body));
+    }
+
+    /**
+     * Spawn many spheres at once, as a single command. Safe to call from any thread.
+     * The spheres must be new, as checking whether each is already in the world would be quadratic.
+     * @param newBodies spheres to spawn
+     */
+    public void spawn(List<NewSphere> newBodies) {
+        if (!headless && Platform.isFxApplicationThread()) {
+            bounds = Bridge.getCanvasController().getCanvas().getLayoutBounds();
+        }
+        submit(new Spawn(newBodies));
+    }
+
+    /**
+     * Stop stepping a given sphere, and take it off the canvas. Safe to call from any thread
+     * @param body sphere to delete
+     */
+    public void delete(NewSphere body) {
+        submit(new Delete(body));
+    }
+
+    /**
+     * Remove every sphere from the world and the canvas at once. Safe to call from any thread.
+     * The simulation thread goes back to parking until a new sphere is spawned.
+     */
+    public void clear() {
+        submit(new Clear());
+    }
+
+    /**
+     * Change the speed and direction of a sphere. Safe to call from any thread
+     * @param body sphere to change
+     * @param velocityX new speed and direction on the X-axis, in pixels per second
+     * @param velocityY new speed and direction on the Y-axis, in pixels per second
+     */
+    public void setVelocity(NewSphere body, double velocityX, double velocityY) {
+        submit(new SetVelocity(body, velocityX, velocityY));
+    }
+
+    /**
+     * Queue a command for the simulation thread, waking it up if it is parked on an empty world
+     */
+    private void submit(Command command) {
+        commands.offer(command);
+        if (headless) {
+            // Applied by the next advance()
+            return;
+        }
+        start();
+        // Read after offering. The simulation thread sets the flag before its last look at the queue, so one of the two always sees the other
+        Thread thread = simulationThread;
+        if (waiting && thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Start the simulation thread and the render timer, unless they are already running. Both then keep going for the rest of the session
+     */
+    private void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(this::simulate, "Bounce-Simulation");
+        thread.setDaemon(true);
+        simulationThread = thread;
+        thread.start();
+        if (Platform.isFxApplicationThread()) {
+            pulse.start();
+        } else {
+            Platform.runLater(pulse::start);
+        }
+    }
+
+    /**
+     * Apply every command submitted since the last step, in the order they were submitted, and pass those that changed the world on to the FX thread.
+     * Runs on the simulation thread, while holding the world's lock
+     */
+    private void applyCommands() {
+        Command command;
+        while ((command = commands.poll()) != null) {
+            // Nothing to follow up on without a renderer
+            if (command.apply() && !headless) {
+                applied.offer(command);
+            }
+        }
+    }
+
+    /**
+     * Find the palette index of a colour, adding it to the palette if it is new
+     * @param colour colour of a sphere
+     * @return index into the palette
+     */
+    private int indexOfColour(Color colour) {
+        int index = palette.indexOf(colour);
+        if (index < 0) {
+            palette.add(colour);
+            index = palette.size() - 1;
+        }
+        return index;
+    }
+
+    /**
+     * Body of the simulation thread. Steps the world with a fixed timestep, and waits without spinning while the world is empty.
+     * Real time that passes is added to an accumulator, and one step is taken for every timestep's worth of it, so the world moves
+     * at the same speed whatever the pulse rate. After falling behind, at most MAX_SUBSTEPS steps are taken at once and the rest is dropped.
+     */
+    private void simulate() {
+        long period = 1_000_000_000L / tickRate;
+        long previous = System.nanoTime();
+        long accumulator = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            if (isIdle()) {
+                // Nothing to step. Park until a command comes in, then start counting time afresh and take a step straight away
+                waiting = true;
+                if (bounds == null) {
+                    // Spawned from another thread before the first pulse; the canvas size is not known yet
+                    LockSupport.parkNanos(this, period);
+                } else if (commands.isEmpty()) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+                previous = System.nanoTime();
+                accumulator = period;
+                continue;
+            }
+            long now;
+            synchronized (this) {
+                now = System.nanoTime();
+                accumulator += now - previous;
+                previous = now;
+                int substeps = 0;
+                while (accumulator >= period && substeps < MAX_SUBSTEPS) {
+                    step();
+                    accumulator -= period;
+                    substeps++;
+                }
+                if (accumulator >= period) {
+                    // Spiral of death guard: give up on the time that could not be caught up with
+                    accumulator = 0;
+                }
+                if (substeps > 0) {
+                    // The state now matches the real time minus whatever is left in the accumulator
+                    publish(bodies.size(), now - accumulator);
+                }
+            }
+            LockSupport.parkNanos(period - accumulator);
+        }
+    }
+
+    /**
+     * Take a given amount of steps straight away, on the calling thread. Only for a headless world, which has no thread stepping it.
+     * Commands submitted before are applied first, as they would be in real time
+     * @param steps amount of steps to take
+     */
+    synchronized void advance(int steps) {
+        if (!headless) {
+            throw new IllegalStateException("Only a headless world can be advanced by hand");
+        }
+        for (int i = 0; i < steps; i++) {
+            step();
+        }
+    }
+
+    /**
+     * Copy the current state of every sphere, in the order they are stepped. For comparing runs
+     * @return positions and velocities, four values per sphere: X, Y, then the velocity on both axes
+     */
+    synchronized double[] copyState() {
+        int count = bodies.size();
+        double[] state = new double[count * 4];
+        for (int i = 0; i < count; i++) {
+            state[i * 4] = store.getX(i);
+            state[i * 4 + 1] = store.getY(i);
+            state[i * 4 + 2] = store.getVX(i);
+            state[i * 4 + 3] = store.getVY(i);
+        }
+        return state;
+    }
+
+    /**
+     * Whether there is nothing to step: no spheres, even after applying whatever was submitted, or no canvas size to bounce them in yet
+     */
+    private synchronized boolean isIdle() {
+        if (bodies.isEmpty()) {
+            applyCommands();
+        }
+        return bodies.isEmpty() || bounds == null;
+    }
+
+    /**
+     * Advance every sphere by one timestep. Runs on the simulation thread, while holding the world's lock.
+     * Commands submitted since the last step are applied first, so that they take effect exactly between two steps.
+     * Collisions are added to the pending counters; positions are only handed over to the FX thread once all steps owed have been taken.
+     * The canvas bounds are retrieved once and shared by all spheres, instead of once per edge check per sphere.
+     * Sphere-to-sphere collisions go through the broadphase, so only nearby spheres are ever tested against each other.
+     */
+    private void step() {
+        applyCommands();
+        Bounds bounds = this.bounds;
+        int count = bodies.size();
+
+        if (eventEngine != null) {
+            // Keep the state before the step, so that the FX thread can draw the spheres anywhere between the two
+            for (int i = 0; i < count; i++) {
+                previousX[i] = store.getX(i);
+                previousY[i] = store.getY(i);
+            }
+            if (eventEngineStale || !bounds.equals(eventEngineBounds)) {
+                eventEngine.reset(store, count, bounds);
+                eventEngineStale = false;
+                eventEngineBounds = bounds;
+            }
+            // Jump from event to event until the end of the step, then bring every position up to that time
+            eventEngine.advance(timestep, wallHits, sphereHits);
+            pairsTested = eventEngine.getPairsPredicted();
+            countHits(count);
+            return;
+        }
+
+        // Phase one: walls and movement, giving the start and tentative positions
+        forEachRange(count, (from, to) -> moveRange(from, to, bounds));
+
+        /* Broadphase on the swept circles. Two of them can only touch if their centres are within the radii plus both paths' half-lengths,
+        so the margin only has to cover the longest path of the step */
+        double longestPath = 0;
+        for (int i = 0; i < count; i++) {
+            longestPath = Math.max(longestPath, sweptRadius[i] - store.getRadius(i));
+        }
+        candidates.clear();
+        broadphase.findPairs(sweptX, sweptY, store, longestPath * 2, count, candidates);
+        pairsTested = candidates.size();
+        buildNeighbours(count);
+
+        // Phase two: sphere-to-sphere contacts, found at the time of impact within the step. Each pair is only tested from its lower index
+        forEachRange(count, this::collideRange);
+        // Phase three: bounce every contact pair once, in a fixed order. Cheap next to finding them, so it is not split across threads
+        resolveContacts(count);
+        // Phase four: move every sphere along its path up to its first contact, then along its new direction, straight into the store
+        forEachRange(count, this::settleRange);
+
+        countHits(count);
+    }
+
+    /**
+     * Handles walls and movement for a range of spheres.
+     * Writes only the start and tentative entries of the spheres in the range.
+     */
+    private void moveRange(int from, int to, Bounds bounds) {
+        double minX = bounds.getMinX();
+        double maxX = bounds.getMaxX();
+        double minY = bounds.getMinY();
+        double maxY = bounds.getMaxY();
+        for (int i = from; i < to; i++) {
+            double r = store.getRadius(i);
+            double px = store.getX(i);
+            double py = store.getY(i);
+            double dx = store.getVX(i);
+            double dy = store.getVY(i);
+            int hits = 0;
+
+            // If the sphere has somehow managed to break out of bounds, force it back on the screen
+            if (px < minX + r) {
+                px = minX + r;
+            } else if (px > maxX - r) {
+                px = maxX - r;
+            }
+            if (py < minY + r) {
+                py = minY + r;
+            } else if (py > maxY - r) {
+                py = maxY - r;
+            }
+
+            previousX[i] = px;
+            previousY[i] = py;
+
+            /* Move the sphere depending on its position and direction vector.
+            If it would end up past a wall, it hits the wall partway through the step and travels the rest of the way mirrored back.
+            Creates a "bouncing" effect that lands exactly where the sphere would have been, rather than a frame late */
+            double nextX = px + dx * timestep;
+            double nextY = py + dy * timestep;
+            if ((dx < 0 && nextX <= minX + r) || (dx > 0 && nextX >= maxX - r)) {
+                double wall = dx < 0 ? minX + r : maxX - r;
+                nextX = wall - (nextX - wall);
+                dx *= -1;
+                hits++;
+            }
+            if ((dy < 0 && nextY <= minY + r) || (dy > 0 && nextY >= maxY - r)) {
+                double wall = dy < 0 ? minY + r : maxY - r;
+                nextY = wall - (nextY - wall);
+                dy *= -1;
+                hits++;
+            }
+
+            tentativeX[i] = nextX;
+            tentativeY[i] = nextY;
+            tentativeVX[i] = dx;
+            tentativeVY[i] = dy;
+            wallHits[i] = hits;
+
+            // Path from the start to the tentative position, approximated by a straight line even when it bounced off a wall
+            double pathX = nextX - px;
+            double pathY = nextY - py;
+            sweptX[i] = px + pathX * 0.5;
+            sweptY[i] = py + pathY * 0.5;
+            sweptRadius[i] = r + Math.sqrt((pathX * pathX) + (pathY * pathY)) * 0.5;
+        }
+    }
+
+    /**
+     * Finds the sphere-to-sphere contacts of a range of spheres.
+     * Each sphere sweeps along its path from the start of the step against its neighbours with a higher index, and records every pair
+     * that touches along with the time of impact. Since each unordered pair is listed from one side only, it is only ever tested once.
+     * Each sphere only reads its neighbours' start and tentative positions and only writes its own contact slots, so this is safe.
+     */
+    private void collideRange(int from, int to) {
+        // Neighbours whose swept circle touches the current sphere's. One per range, as ranges may run on different threads
+        int[] contacts = new int[16];
+        for (int i = from; i < to; i++) {
+            double px = previousX[i];
+            double py = previousY[i];
+            double pathX = tentativeX[i] - px;
+            double pathY = tentativeY[i] - py;
+            double r = store.getRadius(i);
+            int slot = neighbourStart[i];
+            int found = 0;
+
+            int candidateCount = neighbourStart[i + 1] - neighbourStart[i];
+            if (contacts.length < candidateCount) {
+                contacts = new int[Math.max(candidateCount, contacts.length * 2)];
+            }
+            int contactTotal = narrowphase.findContacts(sweptX[i], sweptY[i], sweptRadius[i], neighbours, neighbourStart[i], neighbourStart[i + 1],
+                    sweptX, sweptY, sweptRadius, contacts);
+
+            for (int k = 0; k < contactTotal; k++) {
+                int j = contacts[k];
+                // Relative position at the start of the step, and relative path over the step
+                double ox = px - previousX[j];
+                double oy = py - previousY[j];
+                double rx = pathX - (tentativeX[j] - previousX[j]);
+                double ry = pathY - (tentativeY[j] - previousY[j]);
+                double radii = r + store.getRadius(j);
+                double gap = (ox * ox) + (oy * oy) - (radii * radii);
+                double approach = (ox * rx) + (oy * ry);
+
+                double toi;
+                if (gap < 0) {
+                    // Already overlapping at the start of the step. Always recorded, so that they get pushed apart
+                    toi = 0;
+                } else {
+                    toi = timeOfImpact(gap, approach, (rx * rx) + (ry * ry));
+                    if (toi > 1) {
+                        continue;
+                    }
+                }
+                contactPartner[slot + found] = j;
+                contactTime[slot + found] = toi;
+                found++;
+            }
+            contactCount[i] = found;
+        }
+    }
+
+    /**
+     * Bounce every contact pair found this step, once per pair, in order of the lower index.
+     * The bounce is an elastic impulse along the line between the centres at the time of impact, with masses taken from the squared radii,
+     * so a small sphere hitting a large one barely moves it. Each pair counts as one sphere-to-sphere collision.
+     * Pairs that already overlapped at the start of the step (spawned on top of each other, or squeezed by a third sphere) are also pushed apart
+     * by half the overlap each, but that is now a rare fallback rather than the usual way contacts are resolved.
+     */
+    private void resolveContacts(int count) {
+        Arrays.fill(firstImpact, 0, count, 2);
+        Arrays.fill(pushX, 0, count, 0);
+        Arrays.fill(pushY, 0, count, 0);
+        Arrays.fill(sphereHits, 0, count, 0);
+        for (int i = 0; i < count; i++) {
+            for (int c = neighbourStart[i]; c < neighbourStart[i] + contactCount[i]; c++) {
+                int j = contactPartner[c];
+                double toi = contactTime[c];
+                double r = store.getRadius(i);
+                double otherRadius = store.getRadius(j);
+                // Centres at the time of impact
+                double ox = (previousX[i] + (tentativeX[i] - previousX[i]) * toi) - (previousX[j] + (tentativeX[j] - previousX[j]) * toi);
+                double oy = (previousY[i] + (tentativeY[i] - previousY[i]) * toi) - (previousY[j] + (tentativeY[j] - previousY[j]) * toi);
+                double squaredDistance = (ox * ox) + (oy * oy);
+                if (squaredDistance == 0) {
+                    // Exactly on top of each other, there is no direction to bounce or push in
+                    continue;
+                }
+                double distance = Math.sqrt(squaredDistance);
+                double nx = ox / distance;
+                double ny = oy / distance;
+
+                if (distance < r + otherRadius) {
+                    // Push back following the vector of their collision
+                    double overlap = retrieveOverlap(distance, r, otherRadius);
+                    pushX[i] -= overlap * nx;
+                    pushY[i] -= overlap * ny;
+                    pushX[j] += overlap * nx;
+                    pushY[j] += overlap * ny;
+                }
+
+                // Speed at which they move into each other along the normal. Only bounce if they actually do
+                double closing = ((tentativeVX[i] - tentativeVX[j]) * nx) + ((tentativeVY[i] - tentativeVY[j]) * ny);
+                if (closing >= 0) {
+                    continue;
+                }
+                double inverseMass = 1 / (r * r);
+                double otherInverseMass = 1 / (otherRadius * otherRadius);
+                double impulse = -2 * closing / (inverseMass + otherInverseMass);
+                tentativeVX[i] += impulse * inverseMass * nx;
+                tentativeVY[i] += impulse * inverseMass * ny;
+                tentativeVX[j] -= impulse * otherInverseMass * nx;
+                tentativeVY[j] -= impulse * otherInverseMass * ny;
+                firstImpact[i] = Math.min(firstImpact[i], toi);
+                firstImpact[j] = Math.min(firstImpact[j], toi);
+                sphereHits[i]++;
+            }
+        }
+    }
+
+    /**
+     * Writes the final state of a range of spheres into the store.
+     * A sphere that bounced travels along its path up to its first contact, then spends the rest of the step moving in its new direction.
+     */
+    private void settleRange(int from, int to) {
+        for (int i = from; i < to; i++) {
+            double x = tentativeX[i];
+            double y = tentativeY[i];
+            double impact = firstImpact[i];
+            if (impact <= 1) {
+                x = previousX[i] + ((tentativeX[i] - previousX[i]) * impact) + (tentativeVX[i] * (1 - impact) * timestep);
+                y = previousY[i] + ((tentativeY[i] - previousY[i]) * impact) + (tentativeVY[i] * (1 - impact) * timestep);
+            }
+            store.setX(i, x + pushX[i]);
+            store.setY(i, y + pushY[i]);
+            store.setVX(i, tentativeVX[i]);
+            store.setVY(i, tentativeVY[i]);
+        }
+    }
+
+    /**
+     * Earliest time at which two spheres moving in straight lines touch, found by solving |offset + t * path|² = radii² for t.
+     * Only called for spheres that do not overlap yet.
+     * @param gap squared distance between the centres minus the squared sum of the radii, at the start of the step. Positive
+     * @param approach dot product of the offset between the centres and the relative path. Negative if the spheres are moving towards each other
+     * @param pathLength squared length of the relative path over the step
+     * @return the fraction of the step after which the spheres touch, or infinity if they do not touch
+     */
+    static double timeOfImpact(double gap, double approach, double pathLength) {
+        // Moving apart, or not moving relative to each other at all
+        if (approach >= 0 || pathLength == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double discriminant = (approach * approach) - (pathLength * gap);
+        // Closest approach is still further apart than the radii
+        if (discriminant < 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return (-approach - Math.sqrt(discriminant)) / pathLength;
+    }
+
+    /**
+     * Add this step's collisions to the pending counters, which are accumulated until the FX thread gets around to rendering
+     */
+    private void countHits(int count) {
+        int walls = 0;
+        int spheres = 0;
+        for (int i = 0; i < count; i++) {
+            walls += wallHits[i];
+            spheres += sphereHits[i];
+        }
+        pendingWallHits.addAndGet(walls);
+        pendingSphereHits.addAndGet(spheres);
+    }
+
+    /**
+     * Publish the current positions, along with the ones before the last step, as the latest completed frame
+     * @param count amount of spheres
+     * @param time System.nanoTime() at which the current positions are due on screen
+     */
+    private void publish(int count, long time) {
+        back.copy(bodies, store, previousX, previousY, count, time);
+        back = latest.getAndSet(back);
+        fresh.set(true);
+    }
+
+    /**
+     * Draw the latest completed frame with the renderer, and update the session counters. Runs on the FX thread once per pulse.
+     * Spheres are drawn between their last two states, according to how far the pulse is into the following step.
+     * That puts the picture one step behind the simulation, but movement stays smooth when the refresh rate does not match the tick rate.
+     * @param now time of the pulse, comparable with System.nanoTime()
+     */
+    private void render(long now) {
+        bounds = Bridge.getCanvasController().getCanvas().getLayoutBounds();
+        if (fresh.getAndSet(false)) {
+            front = latest.getAndSet(front);
+        }
+        /* Follow up on the commands applied since the last pulse. Done after taking the latest frame: a sphere is always deleted from the world
+        before the first frame without it is published, so deleting its node now can never be undone by drawing an older frame */
+        Command command;
+        while ((command = applied.poll()) != null) {
+            command.show();
+        }
+        double alpha = Math.min(1, Math.max(0, (now - front.time) * tickRate / 1e9));
+        drawnAlpha = alpha;
+        renderer.begin();
+        for (int i = 0; i < front.count; i++) {
+            renderer.draw(front.bodies[i],
+                    front.previousX[i] + (front.x[i] - front.previousX[i]) * alpha,
+                    front.previousY[i] + (front.y[i] - front.previousY[i]) * alpha,
+                    front.radius[i], palette.get(front.colour[i]));
+        }
+        renderer.end();
+        int walls = pendingWallHits.getAndSet(0);
+        int spheres = pendingSphereHits.getAndSet(0);
+        if (walls > 0) {
+            // Play sound on impact. Off by default
+            if (Bridge.getCanvasController().isSoundOn()) {
+                audio.play(CollisionAudio.Effect.WALL, walls);
+            }
+            // Update (local) session sphere-to-wall collision count
+            Bridge.getCanvasController().setWallCollisionCount(Bridge.getCanvasController().getWallCollisionCount() + walls);
+        }
+        if (spheres > 0) {
+            if (Bridge.getCanvasController().isSoundOn()) {
+                audio.play(CollisionAudio.Effect.SPHERE, spheres);
+            }
+            Bridge.getCanvasController().setSphereCollisionCount(Bridge.getCanvasController().getSphereCollisionCount() + spheres);
+        }
+        // Queue both for the next flush to the (global) database counters
+        if (spheres > 0 || walls > 0) {
+            StatsFlusher.record(0, spheres, walls);
+        }
+    }
+
+    /**
+     * @return amount of spheres drawn on the last pulse. Must be called on the FX thread
+     */
+    public int getDrawnCount() {
+        return front.count;
+    }
+
+    /**
+     * Copy where every sphere was drawn on the last pulse. Must be called on the FX thread
+     * @param x receives the centre of each sphere on the X-axis. At least getDrawnCount() long
+     * @param y receives the centre of each sphere on the Y-axis
+     * @param radius receives the radius of each sphere
+     */
+    public void copyDrawn(double[] x, double[] y, double[] radius) {
+        for (int i = 0; i < front.count; i++) {
+            x[i] = front.previousX[i] + (front.x[i] - front.previousX[i]) * drawnAlpha;
+            y[i] = front.previousY[i] + (front.y[i] - front.previousY[i]) * drawnAlpha;
+            radius[i] = front.radius[i];
+        }
+    }
+
+    /**
+     * Find the sphere drawn at a given point on the last pulse. Used by the renderers to show the "Delete" menu. Must be called on the FX thread
+     * @param x point on the X-axis
+     * @param y point on the Y-axis
+     * @return the sphere drawn on top at that point, or null if there is none
+     */
+    public NewSphere pick(double x, double y) {
+        // Spheres drawn later are on top, so look from the end
+        for (int i = front.count - 1; i >= 0; i--) {
+            double dx = x - (front.previousX[i] + (front.x[i] - front.previousX[i]) * drawnAlpha);
+            double dy = y - (front.previousY[i] + (front.y[i] - front.previousY[i]) * drawnAlpha);
+            if ((dx * dx) + (dy * dy) <= front.radius[i] * front.radius[i]) {
+                return front.bodies[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Turn this frame's candidate pairs into a list of candidate neighbours per sphere, in the order the broadphase reported them.
+     * Each pair is only listed under its lower index
+     */
+    private void buildNeighbours(int count) {
+        if (neighbours.length < candidates.size()) {
+            neighbours = new int[candidates.size() * 2];
+            contactPartner = new int[neighbours.length];
+            contactTime = new double[neighbours.length];
+        }
+        Arrays.fill(neighbourStart, 0, count + 1, 0);
+        for (int p = 0; p < candidates.size(); p++) {
+            neighbourStart[candidates.first(p) + 1]++;
+        }
+        for (int i = 0; i < count; i++) {
+            neighbourStart[i + 1] += neighbourStart[i];
+        }
+        // Use each sphere's start offset as a moving cursor, then shift the offsets back once everything is placed
+        for (int p = 0; p < candidates.size(); p++) {
+            neighbours[neighbourStart[candidates.first(p)]++] = candidates.second(p);
+        }
+        for (int i = count; i > 0; i--) {
+            neighbourStart[i] = neighbourStart[i - 1];
+        }
+        neighbourStart[0] = 0;
+    }
+
+    /**
+     * Run a phase over every sphere, either directly or split across the ForkJoinPool
+     */
+    private void forEachRange(int count, BodyRange phase) {
+        if (!parallel || count <= GRAIN) {
+            phase.run(0, count);
+            return;
+        }
+        if (pool == null) {
+            pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        pool.invoke(new RangeTask(phase, 0, count));
+    }
+
+    /**
+     * Grow the store and the scratch arrays so that they can hold a given amount of spheres, keeping the current state
+     */
+    private void ensureCapacity(int count) {
+        if (tentativeX.length >= count) {
+            return;
+        }
+        store.grow(count);
+        int capacity = store.capacity();
+        tentativeX = new double[capacity];
+        tentativeY = new double[capacity];
+        tentativeVX = new double[capacity];
+        tentativeVY = new double[capacity];
+        previousX = new double[capacity];
+        previousY = new double[capacity];
+        sweptX = new double[capacity];
+        sweptY = new double[capacity];
+        sweptRadius = new double[capacity];
+        wallHits = new int[capacity];
+        sphereHits = new int[capacity];
+        neighbourStart = new int[capacity + 1];
+        contactCount = new int[capacity];
+        firstImpact = new double[capacity];
+        pushX = new double[capacity];
+        pushY = new double[capacity];
+    }
+
+    /**
+     * Checks for collision between two given spheres.
+     * Compares squared distances so that no square root is needed for the (very common) case of a candidate pair that does not touch.
+     * @param sphereX Position of the first sphere centre on the X-axis
+     * @param sphereY Position of the first sphere centre on the Y-axis
+     * @param sphereRadius Radius of the first sphere
+     * @param otherSphereX Position of the second sphere centre on the X-axis
+     * @param otherSphereY Position of the second sphere centre on the Y-axis
+     * @param otherSphereRadius Radius of the second sphere
+     * @return true if the spheres are colliding, false otherwise
+     */
+    static boolean checkCollision(double sphereX, double sphereY, double sphereRadius,
+                                  double otherSphereX, double otherSphereY, double otherSphereRadius) {
+        // dx = horizontal distance between sphere and other sphere
+        // dy = vertical distance between sphere and other sphere
+        double dx = otherSphereX - sphereX;
+        double dy = otherSphereY - sphereY;
+        double radii = sphereRadius + otherSphereRadius;
+        // return true if the squared distance between the centres is lower than the squared sum of their radii, false if not
+        return ((dx * dx) + (dy * dy) <= radii * radii);
+    }
+
+    /**
+     * Retrieve how much overlap, if any, there is between two given spheres
+     * @param distance distance between the centres of the spheres, in pixels
+     * @param sphereRadius Radius of the first sphere
+     * @param otherSphereRadius Radius of the second sphere
+     * @return the amount of overlap for a sphere with another one in pixels (negative if they overlap)
+     */
+    static double retrieveOverlap(double distance, double sphereRadius, double otherSphereRadius) {
+        return (distance - sphereRadius - otherSphereRadius) * 0.5;
+    }
+
+    /**
+     * A change to the world, submitted from any thread
+     */
+    private abstract static class Command {
+        /**
+         * Apply the change to the world's state. Runs on the simulation thread, while holding the world's lock
+         * @return true if the FX thread has to follow up with show()
+         */
+        abstract boolean apply();
+
+        /**
+         * Bring the renderer and the sphere list in line with the change. Runs on the FX thread, on the first pulse after apply()
+         */
+        void show() {
+        }
+    }
+
+    /**
+     * Add new spheres to the world, with the initial state they were created with
+     */
+    private class Spawn extends Command {
+        private final List<NewSphere> newBodies;
+
+        Spawn(List<NewSphere> newBodies) {
+            this.newBodies = newBodies;
+        }
+
+        @Override
+        boolean apply() {
+            int i = bodies.size();
+            ensureCapacity(i + newBodies.size());
+            bodies.addAll(newBodies);
+            Color lastColour = null;
+            int index = 0;
+            for (int k = 0; k < newBodies.size(); k++) {
+                NewSphere body = newBodies.get(k);
+                body.id = slots.add();
+                // Spheres spawned together usually share their colour, so only look it up when it changes
+                if (body.colour != lastColour) {
+                    lastColour = body.colour;
+                    index = indexOfColour(lastColour);
+                }
+                store.setX(i, body.x);
+                store.setY(i, body.y);
+                store.setRadius(i, body.radius);
+                store.setVX(i, body.directionX * DIRECTION_FRAME_RATE);
+                store.setVY(i, body.directionY * DIRECTION_FRAME_RATE);
+                store.setColour(i, index);
+                i++;
+            }
+            eventEngineStale = true;
+            return true;
+        }
+
+        @Override
+        void show() {
+            // Anything the renderer keeps per sphere (nodes) goes at the end of its own layer, all in one change
+            renderer.showAll(newBodies);
+            Bridge.getCanvasController().getSphereList().addAll(newBodies);
+        }
+    }
+
+    /**
+     * Find a sphere's current index from its ID
+     * @param body sphere to look for
+     * @return its index in "bodies" and the store, or -1 if it is not in the world (anymore)
+     */
+    private int indexOf(NewSphere body) {
+        int i = slots.indexOf(body.id);
+        // IDs are handed out again once freed, so make sure it is still this sphere's
+        return i >= 0 && bodies.get(i) == body ? i : -1;
+    }
+
+    /**
+     * Remove a sphere from the world, moving the last sphere into its place
+     */
+    private class Delete extends Command {
+        private final NewSphere body;
+        // Index the sphere had, for the FX thread to delete its node from the same place
+        private int index = -1;
+
+        Delete(NewSphere body) {
+            this.body = body;
+        }
+
+        @Override
+        boolean apply() {
+            int i = indexOf(body);
+            if (i < 0) {
+                // Already deleted, e.g. from a second context menu
+                return false;
+            }
+            slots.remove(body.id);
+            // Swap-remove: the last sphere and its state take the deleted one's place, instead of shifting every following sphere down
+            int last = bodies.size() - 1;
+            NewSphere moved = bodies.remove(last);
+            if (i < last) {
+                bodies.set(i, moved);
+                store.move(last, i);
+            }
+            broadphase.removed(i, last);
+            eventEngineStale = true;
+            index = i;
+            return true;
+        }
+
+        @Override
+        void show() {
+            renderer.hide(body, index);
+            // The sphere list is kept in the same order as the world, so it is swap-removed the same way
+            ArrayList<NewSphere> sphereList = Bridge.getCanvasController().getSphereList();
+            NewSphere moved = sphereList.remove(sphereList.size() - 1);
+            if (index < sphereList.size()) {
+                sphereList.set(index, moved);
+            }
+        }
+    }
+
+    /**
+     * Remove every sphere from the world
+     */
+    private class Clear extends Command {
+        @Override
+        boolean apply() {
+            bodies.clear();
+            slots.clear();
+            broadphase.reset();
+            eventEngineStale = true;
+            return true;
+        }
+
+        @Override
+        void show() {
+            // Forget the frames from before the clear too, so that the cleared spheres are not drawn again
+            fresh.set(false);
+            front.count = 0;
+            /* This swaps out the renderer's whole layer (of Sphere nodes, for the NodeRenderer), instead of removing them from the canvas one by one */
+            renderer.clear();
+            Bridge.getCanvasController().getSphereList().clear();
+        }
+    }
+
+    /**
+     * Change the velocity of a sphere. Nothing to show, the next frame has it moving the new way
+     */
+    private class SetVelocity extends Command {
+        private final NewSphere body;
+        private final double velocityX;
+        private final double velocityY;
+
+        SetVelocity(NewSphere body, double velocityX, double velocityY) {
+            this.body = body;
+            this.velocityX = velocityX;
+            this.velocityY = velocityY;
+        }
+
+        @Override
+        boolean apply() {
+            int i = indexOf(body);
+            if (i >= 0) {
+                store.setVX(i, velocityX);
+                store.setVY(i, velocityY);
+                eventEngineStale = true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Completed positions of every sphere after a tick, handed from the simulation thread to the FX thread.
+     * Only ever drawn, so positions are kept in single precision, like the MeshRenderer's points; that halves what the three frames take per sphere
+     */
+    private static class Frame {
+        private NewSphere[] bodies = new NewSphere[0];
+        private float[] x = new float[0];
+        private float[] y = new float[0];
+        // Positions one step earlier
+        private float[] previousX = new float[0];
+        private float[] previousY = new float[0];
+        // Radius and palette index of every sphere
+        private float[] radius = new float[0];
+        private int[] colour = new int[0];
+        // System.nanoTime() at which the positions are due on screen
+        private long time = 0;
+        private int count = 0;
+
+        /**
+         * Fill the frame with the given state. Grows by half when it runs out of room, rather than to the store's capacity
+         */
+        void copy(ArrayList<NewSphere> bodies, BodyStore store, double[] previousX, double[] previousY, int count, long time) {
+            if (this.x.length < count) {
+                int length = count + count / 2;
+                this.bodies = new NewSphere[length];
+                this.x = new float[length];
+                this.y = new float[length];
+                this.previousX = new float[length];
+                this.previousY = new float[length];
+                this.radius = new float[length];
+                this.colour = new int[length];
+            }
+            for (int i = 0; i < count; i++) {
+                this.bodies[i] = bodies.get(i);
+            }
+            // Drop references to spheres that are no longer in the world
+            Arrays.fill(this.bodies, count, Math.max(count, this.count), null);
+            for (int i = 0; i < count; i++) {
+                this.x[i] = (float) store.getX(i);
+                this.y[i] = (float) store.getY(i);
+                this.previousX[i] = (float) previousX[i];
+                this.previousY[i] = (float) previousY[i];
+                this.radius[i] = (float) store.getRadius(i);
+                this.colour[i] = store.getColour(i);
+            }
+            this.time = time;
+            this.count = count;
+        }
+    }
+
+    /**
+     * A phase of the step, run over a range of spheres
+     */
+    private interface BodyRange {
+        void run(int from, int to);
+    }
+
+    /**
+     * Splits a phase in halves until the ranges are small enough, then runs them on the pool
+     */
+    private static class RangeTask extends RecursiveAction {
+        // Never serialized, but RecursiveAction is Serializable
+        private static final long serialVersionUID = 1L;
+        private final BodyRange phase;
+        private final int from;
+        private final int to;
+
+        RangeTask(BodyRange phase, int from, int to) {
+            this.phase = phase;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= GRAIN) {
+                phase.run(from, to);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RangeTask(phase, from, middle), new RangeTask(phase, middle, to));
+            }
+        }
+    }
+}
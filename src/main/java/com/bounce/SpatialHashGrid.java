@@ -0,0 +1,129 @@
+package com.bounce;
+
+import java.util.Arrays;
+
+/**
+ * Uniform-grid spatial hash used as a broadphase for sphere-to-sphere collisions.
+ * Every sphere is bucketed by the grid cell its centre falls into. Cells are as wide as the largest possible sphere diameter,
+ * so two spheres can only touch if their cells are neighbours, and only the 3x3 block of cells around a sphere has to be checked.
+ * The grid is rebuilt from scratch every frame with a counting sort, which is linear in the amount of spheres and allocation free once warmed up.
+ */
+public class SpatialHashGrid implements Broadphase {
+    // One over the width and height of a cell in pixels, which is equal to the largest diameter the size slider allows
+    private final double inverseCellSize;
+
+    // Bucket each sphere was hashed to, indexed by sphere
+    private int[] sphereBucket = new int[0];
+    // Cell coordinates of each sphere, indexed by sphere
+    private int[] sphereCellX = new int[0];
+    private int[] sphereCellY = new int[0];
+    // Start of each bucket inside "entries". Bucket b spans entries[bucketStart[b]] up to entries[bucketStart[b + 1]]
+    private int[] bucketStart = new int[0];
+    // Sphere indices sorted by bucket
+    private int[] entries = new int[0];
+    private int mask = 0;
+
+    public SpatialHashGrid() {
+        this(CanvasController.MAX_SPHERE_RADIUS * 2.0);
+    }
+
+    /**
+     * @param cellSize width and height of a cell in pixels. Must be at least the largest sphere diameter
+     */
+    public SpatialHashGrid(double cellSize) {
+        this.inverseCellSize = 1.0 / cellSize;
+    }
+
+    /**
+     * Collect every pair of spheres whose cells are neighbours.
+     * Each unordered pair is reported once, with the lower index first. Pairs are only candidates; the narrowphase still has to test them.
+     * A margin wider than a cell (very fast spheres) widens the block of cells checked around each sphere beyond 3x3.
+     * @param x centre of each sphere on the X-axis
+     * @param y centre of each sphere on the Y-axis
+     * @param store state of every sphere. Unused, as cells are sized for the largest possible sphere
+     * @param margin extra distance two spheres may be apart and still be reported
+     * @param count amount of spheres in the arrays
+     * @param out list the candidate pairs are appended to
+     */
+    @Override
+    public void findPairs(double[] x, double[] y, BodyStore store, double margin, int count, PairList out) {
+        build(x, y, count);
+        // Rings of cells to check around each sphere's own cell. One, unless spheres move further than a cell in a step
+        int reach = 1 + (int) Math.ceil(Math.max(0, margin) * inverseCellSize);
+        // Buckets already scanned for the current sphere, since two neighbouring cells could hash to the same bucket
+        int[] visited = new int[(reach * 2 + 1) * (reach * 2 + 1)];
+        for (int i = 0; i < count; i++) {
+            int visitedCount = 0;
+            for (int cx = sphereCellX[i] - reach; cx <= sphereCellX[i] + reach; cx++) {
+                for (int cy = sphereCellY[i] - reach; cy <= sphereCellY[i] + reach; cy++) {
+                    int bucket = hash(cx, cy);
+                    if (contains(visited, visitedCount, bucket)) {
+                        continue;
+                    }
+                    visited[visitedCount++] = bucket;
+                    for (int e = bucketStart[bucket]; e < bucketStart[bucket + 1]; e++) {
+                        int j = entries[e];
+                        // Only report each pair once, from the sphere with the lower index
+                        if (j > i) {
+                            out.add(i, j);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sort all spheres into buckets. Counting sort: count spheres per bucket, turn counts into offsets, then place each sphere
+     */
+    private void build(double[] x, double[] y, int count) {
+        // Twice as many buckets as spheres keeps hash collisions rare, rounded up to a power of two for cheap masking
+        int buckets = Integer.highestOneBit(Math.max(64, count * 2) - 1) << 1;
+        mask = buckets - 1;
+        if (sphereBucket.length < count) {
+            sphereBucket = new int[count];
+            sphereCellX = new int[count];
+            sphereCellY = new int[count];
+            entries = new int[count];
+        }
+        if (bucketStart.length < buckets + 1) {
+            bucketStart = new int[buckets + 1];
+        } else {
+            Arrays.fill(bucketStart, 0, buckets + 1, 0);
+        }
+
+        for (int i = 0; i < count; i++) {
+            sphereCellX[i] = (int) Math.floor(x[i] * inverseCellSize);
+            sphereCellY[i] = (int) Math.floor(y[i] * inverseCellSize);
+            sphereBucket[i] = hash(sphereCellX[i], sphereCellY[i]);
+            bucketStart[sphereBucket[i] + 1]++;
+        }
+        for (int b = 0; b < buckets; b++) {
+            bucketStart[b + 1] += bucketStart[b];
+        }
+        // Use each bucket's start offset as a moving cursor, then shift the offsets back once everything is placed
+        for (int i = 0; i < count; i++) {
+            entries[bucketStart[sphereBucket[i]]++] = i;
+        }
+        for (int b = buckets; b > 0; b--) {
+            bucketStart[b] = bucketStart[b - 1];
+        }
+        bucketStart[0] = 0;
+    }
+
+    /**
+     * Hash cell coordinates into a bucket index. Large primes keep neighbouring cells apart
+     */
+    private int hash(int cellX, int cellY) {
+        return ((cellX * 73856093) ^ (cellY * 19349663)) & mask;
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,117 @@
+package com.bounce;
+
+import javafx.scene.control.ColorPicker;
+import javafx.scene.control.Slider;
+import javafx.scene.control.Spinner;
+import javafx.scene.control.TextField;
+import javafx.scene.paint.Color;
+
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Everything needed to spawn a sphere, read once from the "New Sphere" tab when a generate button is pressed.
+ * Immutable, so it can be handed to another thread or shared by every sphere of a bulk generation.
+ * Spheres used to look each control up in the scene by its ID, which walks the whole scene graph, spheres included,
+ * so every new sphere took longer to spawn than the last.
+ */
+public final class SpawnSpec {
+    // Initial centre of the sphere, or null to pick one at random
+    private final Integer initialX;
+    private final Integer initialY;
+    // Radius of the sphere
+    private final double radius;
+    // Speed and direction in pixels per frame, or null to pick one at random
+    private final Integer vectorX;
+    private final Integer vectorY;
+    // Colour of the sphere
+    private final Color colour;
+
+    /**
+     * @param initialX initial centre on the X-axis, or null for random
+     * @param initialY initial centre on the Y-axis, or null for random
+     * @param radius radius of the sphere
+     * @param vectorX speed and direction on the X-axis in pixels per frame, or null for random
+     * @param vectorY speed and direction on the Y-axis in pixels per frame, or null for random
+     * @param colour colour of the sphere
+     */
+    public SpawnSpec(Integer initialX, Integer initialY, double radius, Integer vectorX, Integer vectorY, Color colour) {
+        this.initialX = initialX;
+        this.initialY = initialY;
+        this.radius = radius;
+        this.vectorX = vectorX;
+        this.vectorY = vectorY;
+        this.colour = colour;
+    }
+
+    /**
+     * Read the current values of the "New Sphere" tab controls. Must be called on the FX thread
+     * @param initialX "Position" X field. Blank means random
+     * @param initialY "Position" Y field. Blank means random
+     * @param size "Size" slider
+     * @param vectorX "Speed and Direction" X spinner. "Random" means random
+     * @param vectorY "Speed and Direction" Y spinner. "Random" means random
+     * @param colour "Colour" picker
+     * @return the spawn specification
+     */
+    public static SpawnSpec fromControls(TextField initialX, TextField initialY, Slider size,
+                                         Spinner<String> vectorX, Spinner<String> vectorY, ColorPicker colour) {
+        return new SpawnSpec(parseField(initialX.getText()), parseField(initialY.getText()), size.getValue(),
+                parseVector(vectorX.getValue()), parseVector(vectorY.getValue()), colour.getValue());
+    }
+
+    private static Integer parseField(String text) {
+        return text.equals("") ? null : Integer.parseInt(text);
+    }
+
+    private static Integer parseVector(String value) {
+        return Objects.equals(value, "Random") ? null : Integer.parseInt(value);
+    }
+
+    /**
+     * Initial centre on the X-axis. If none was given, it is randomized in accordance to the screen size
+     * @param random source of randomness
+     * @param maxX right edge of the canvas
+     * @return the initial X
+     */
+    public int pickX(Random random, double maxX) {
+        return initialX != null ? initialX : random.nextInt((int) radius, (int) maxX);
+    }
+
+    /**
+     * Initial centre on the Y-axis. If none was given, it is randomized in accordance to the screen size
+     * @param random source of randomness
+     * @param maxY bottom edge of the canvas
+     * @return the initial Y
+     */
+    public int pickY(Random random, double maxY) {
+        return initialY != null ? initialY : random.nextInt((int) radius, (int) maxY);
+    }
+
+    /**
+     * Speed and direction on the X-axis. If none was given, it is randomized between -10 and 10
+     * @param random source of randomness
+     * @return the speed and direction in pixels per frame
+     */
+    public int pickVectorX(Random random) {
+        return vectorX != null ? vectorX : random.nextInt(-10,10);
+    }
+
+    /**
+     * Speed and direction on the Y-axis. If none was given, it is randomized between -10 and 10
+     * @param random source of randomness
+     * @return the speed and direction in pixels per frame
+     */
+    public int pickVectorY(Random random) {
+        return vectorY != null ? vectorY : random.nextInt(-10,10);
+    }
+
+    // Getters
+    public double getRadius() {
+        return radius;
+    }
+
+    public Color getColour() {
+        return colour;
+    }
+}
@@ -0,0 +1,290 @@
+package com.bounce;
+
+import javafx.geometry.Bounds;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Finds starting positions for many spheres of the same size at once, for bulk generation.
+ * Spheres already on the canvas are obstacles: the lattice and Poisson-disk patterns never place a sphere on top of one, nor on top of each other.
+ * Overlaps are found with a uniform grid (cells as wide as the largest possible sphere for obstacles, and one point per cell for Poisson-disk samples),
+ * so placing N spheres stays close to linear instead of testing every pair.
+ */
+public class SpherePlacement {
+
+    /**
+     * How the spheres are spread over the canvas
+     */
+    public enum Pattern {
+        // Anywhere, like a single sphere with blank position fields. Fastest, but spheres may start overlapping
+        UNIFORM("Uniform"),
+        // Rows and columns, left to right and top to bottom, skipping any spot taken by an existing sphere
+        LATTICE("Lattice"),
+        // Evenly spread but irregular (Bridson's algorithm). No two spheres start closer than a small gap
+        POISSON("Poisson");
+
+        private final String label;
+
+        Pattern(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    // Extra space left between spheres placed by the lattice and Poisson-disk patterns, as a fraction of the diameter
+    private static final double GAP = 0.05;
+    // Candidates tried around every active Poisson-disk sample before giving up on it
+    private static final int POISSON_ATTEMPTS = 30;
+    // How far past the minimum distance candidates are placed, as a fraction of it. Just enough to stay clear of rounding errors
+    private static final double POISSON_SLACK = 1e-6;
+    // Rotation between two candidates around the same sample
+    private static final double ATTEMPT_COS = Math.cos(2 * Math.PI / POISSON_ATTEMPTS);
+    private static final double ATTEMPT_SIN = Math.sin(2 * Math.PI / POISSON_ATTEMPTS);
+
+    private final double minX;
+    private final double minY;
+    private final double maxX;
+    private final double maxY;
+    private final Random random;
+
+    // Spheres already on the canvas, bucketed into a dense grid. Cell c spans obstacleCell[obstacleStart[c]] up to obstacleCell[obstacleStart[c + 1]]
+    private final double obstacleCellSize = CanvasController.MAX_SPHERE_RADIUS * 2.0 * (1 + GAP);
+    private int obstacleColumns = 1;
+    private int obstacleRows = 1;
+    private int[] obstacleStart = new int[2];
+    private int[] obstacleCell = new int[0];
+    private double[] obstacleX = new double[0];
+    private double[] obstacleY = new double[0];
+    private double[] obstacleRadius = new double[0];
+
+    /**
+     * @param bounds area the spheres must fit in
+     * @param random source of randomness, so that seeded runs place spheres the same way
+     */
+    public SpherePlacement(Bounds bounds, Random random) {
+        this.minX = bounds.getMinX();
+        this.minY = bounds.getMinY();
+        this.maxX = bounds.getMaxX();
+        this.maxY = bounds.getMaxY();
+        this.random = random;
+    }
+
+    /**
+     * Set the spheres that are already on the canvas, which new spheres must not overlap
+     * @param x centre of each sphere on the X-axis
+     * @param y centre of each sphere on the Y-axis
+     * @param radius radius of each sphere
+     * @param count amount of spheres in the arrays
+     */
+    public void setObstacles(double[] x, double[] y, double[] radius, int count) {
+        obstacleX = x;
+        obstacleY = y;
+        obstacleRadius = radius;
+        obstacleColumns = Math.max(1, (int) Math.ceil((maxX - minX) / obstacleCellSize));
+        obstacleRows = Math.max(1, (int) Math.ceil((maxY - minY) / obstacleCellSize));
+        int cells = obstacleColumns * obstacleRows;
+        obstacleStart = new int[cells + 1];
+        obstacleCell = new int[count];
+        // Counting sort of the obstacles by cell
+        int[] cellOf = new int[count];
+        for (int i = 0; i < count; i++) {
+            cellOf[i] = obstacleCellIndex(x[i], y[i]);
+            obstacleStart[cellOf[i] + 1]++;
+        }
+        for (int c = 0; c < cells; c++) {
+            obstacleStart[c + 1] += obstacleStart[c];
+        }
+        int[] cursor = Arrays.copyOf(obstacleStart, cells);
+        for (int i = 0; i < count; i++) {
+            obstacleCell[cursor[cellOf[i]]++] = i;
+        }
+    }
+
+    /**
+     * Find positions for up to a given amount of spheres
+     * @param pattern how to spread the spheres
+     * @param count amount of spheres wanted
+     * @param radius radius of every sphere
+     * @return the positions found, X at even and Y at odd indices. Fewer than asked for if the canvas is full
+     */
+    public double[] place(Pattern pattern, int count, double radius) {
+        switch (pattern) {
+            case LATTICE:
+                return lattice(count, radius);
+            case POISSON:
+                return poisson(count, radius);
+            default:
+                return uniform(count, radius);
+        }
+    }
+
+    private double[] uniform(int count, double radius) {
+        double[] positions = new double[count * 2];
+        for (int i = 0; i < count; i++) {
+            positions[i * 2] = randomX(radius);
+            positions[i * 2 + 1] = randomY(radius);
+        }
+        return positions;
+    }
+
+    private double[] lattice(int count, double radius) {
+        double spacing = radius * 2 * (1 + GAP);
+        double[] positions = new double[count * 2];
+        int placed = 0;
+        for (double y = minY + radius; y <= maxY - radius && placed < count; y += spacing) {
+            for (double x = minX + radius; x <= maxX - radius && placed < count; x += spacing) {
+                if (!hitsObstacle(x, y, radius)) {
+                    positions[placed * 2] = x;
+                    positions[placed * 2 + 1] = y;
+                    placed++;
+                }
+            }
+        }
+        return Arrays.copyOf(positions, placed * 2);
+    }
+
+    /**
+     * Bridson's Poisson-disk sampling. New samples are tried around the most recent active sample, which keeps the grid accesses close together in memory,
+     * and a background grid with cells of minimum distance / √2 holds at most one sample per cell, so only the 5x5 cells around a candidate need checking.
+     * When the active list runs dry before enough spheres are placed (e.g. areas walled off by existing spheres), it is reseeded at random
+     */
+    private double[] poisson(int count, double radius) {
+        double distance = radius * 2 * (1 + GAP);
+        double cellSize = distance / Math.sqrt(2);
+        int columns = Math.max(1, (int) Math.ceil((maxX - minX) / cellSize));
+        int rows = Math.max(1, (int) Math.ceil((maxY - minY) / cellSize));
+        // Sample in every cell, or -1
+        int[] grid = new int[columns * rows];
+        Arrays.fill(grid, -1);
+        double[] positions = new double[count * 2];
+        int[] active = new int[count];
+        int activeCount = 0;
+        int placed = 0;
+        int reseeds = 0;
+
+        while (placed < count) {
+            if (activeCount == 0) {
+                // Seed with a random free spot. Give up once random spots keep landing on taken ground
+                if (reseeds++ > POISSON_ATTEMPTS) {
+                    break;
+                }
+                double x = randomX(radius);
+                double y = randomY(radius);
+                if (hitsSample(grid, columns, rows, cellSize, positions, x, y, distance) || hitsObstacle(x, y, radius)) {
+                    continue;
+                }
+                reseeds = 0;
+                activeCount = addSample(grid, columns, cellSize, positions, active, activeCount, placed++, x, y);
+                continue;
+            }
+            /* Pick a random active sample and try to place a new one around it.
+            Rather than random spots anywhere in the ring around the sample, candidates are evenly spaced around it just past the minimum distance,
+            starting from a random angle. That packs the spheres more tightly and most samples find room on their first few tries */
+            int slot = activeCount - 1;
+            int sample = active[slot];
+            boolean found = false;
+            double angle = random.nextDouble() * 2 * Math.PI;
+            double cos = Math.cos(angle) * distance * (1 + POISSON_SLACK);
+            double sin = Math.sin(angle) * distance * (1 + POISSON_SLACK);
+            for (int attempt = 0; attempt < POISSON_ATTEMPTS; attempt++) {
+                // Rotate to the next candidate
+                double nextCos = (cos * ATTEMPT_COS) - (sin * ATTEMPT_SIN);
+                sin = (cos * ATTEMPT_SIN) + (sin * ATTEMPT_COS);
+                cos = nextCos;
+                double x = positions[sample * 2] + cos;
+                double y = positions[sample * 2 + 1] + sin;
+                if (x < minX + radius || x > maxX - radius || y < minY + radius || y > maxY - radius) {
+                    continue;
+                }
+                if (hitsSample(grid, columns, rows, cellSize, positions, x, y, distance) || hitsObstacle(x, y, radius)) {
+                    continue;
+                }
+                activeCount = addSample(grid, columns, cellSize, positions, active, activeCount, placed++, x, y);
+                found = true;
+                break;
+            }
+            if (!found) {
+                // Nothing fits around this sample anymore, retire it
+                active[slot] = active[--activeCount];
+            }
+        }
+        return Arrays.copyOf(positions, placed * 2);
+    }
+
+    private int addSample(int[] grid, int columns, double cellSize, double[] positions, int[] active, int activeCount, int sample, double x, double y) {
+        positions[sample * 2] = x;
+        positions[sample * 2 + 1] = y;
+        int column = (int) ((x - minX) / cellSize);
+        int row = (int) ((y - minY) / cellSize);
+        grid[row * columns + column] = sample;
+        active[activeCount] = sample;
+        return activeCount + 1;
+    }
+
+    /**
+     * Whether a candidate is closer than the minimum distance to any sample placed so far
+     */
+    private boolean hitsSample(int[] grid, int columns, int rows, double cellSize, double[] positions, double x, double y, double distance) {
+        int column = (int) ((x - minX) / cellSize);
+        int row = (int) ((y - minY) / cellSize);
+        for (int r = Math.max(0, row - 2); r <= Math.min(rows - 1, row + 2); r++) {
+            for (int c = Math.max(0, column - 2); c <= Math.min(columns - 1, column + 2); c++) {
+                int other = grid[r * columns + c];
+                if (other >= 0) {
+                    double dx = positions[other * 2] - x;
+                    double dy = positions[other * 2 + 1] - y;
+                    if ((dx * dx) + (dy * dy) < distance * distance) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a sphere at a given spot would overlap any sphere already on the canvas
+     */
+    private boolean hitsObstacle(double x, double y, double radius) {
+        if (obstacleCell.length == 0) {
+            return false;
+        }
+        int column = clamp((int) ((x - minX) / obstacleCellSize), obstacleColumns);
+        int row = clamp((int) ((y - minY) / obstacleCellSize), obstacleRows);
+        for (int r = Math.max(0, row - 1); r <= Math.min(obstacleRows - 1, row + 1); r++) {
+            for (int c = Math.max(0, column - 1); c <= Math.min(obstacleColumns - 1, column + 1); c++) {
+                int cell = r * obstacleColumns + c;
+                for (int e = obstacleStart[cell]; e < obstacleStart[cell + 1]; e++) {
+                    int i = obstacleCell[e];
+                    if (SimulationWorld.checkCollision(x, y, radius * (1 + GAP), obstacleX[i], obstacleY[i], obstacleRadius[i])) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private int obstacleCellIndex(double x, double y) {
+        int column = clamp((int) Math.floor((x - minX) / obstacleCellSize), obstacleColumns);
+        int row = clamp((int) Math.floor((y - minY) / obstacleCellSize), obstacleRows);
+        return row * obstacleColumns + column;
+    }
+
+    private static int clamp(int value, int size) {
+        return Math.max(0, Math.min(size - 1, value));
+    }
+
+    private double randomX(double radius) {
+        return minX + radius + random.nextDouble() * Math.max(0, maxX - minX - radius * 2);
+    }
+
+    private double randomY(double radius) {
+        return minY + radius + random.nextDouble() * Math.max(0, maxY - minY - radius * 2);
+    }
+}
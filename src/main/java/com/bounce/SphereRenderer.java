@@ -0,0 +1,113 @@
+package com.bounce;
+
+import javafx.scene.Node;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.MenuItem;
+import javafx.scene.input.ContextMenuEvent;
+import javafx.scene.layout.AnchorPane;
+import javafx.scene.paint.Color;
+
+import java.util.List;
+
+/**
+ * Draws every sphere in the world on screen once per pulse. Only ever used on the FX thread.
+ * Which implementation is used can be chosen on launch with -Dbounce.renderer=nodes|mesh|canvas (nodes by default),
+ * and switched at any time from the Options tab.
+ */
+public interface SphereRenderer {
+
+    /**
+     * Start showing spheres on the canvas
+     * @param canvas root pane of the app
+     * @param bodies every sphere currently in the world, in the same order
+     */
+    void attach(AnchorPane canvas, List<NewSphere> bodies);
+
+    /**
+     * Stop showing spheres on the canvas, removing anything attach() added
+     * @param canvas root pane of the app
+     * @param bodies every sphere currently in the world, in the same order
+     */
+    void detach(AnchorPane canvas, List<NewSphere> bodies);
+
+    /**
+     * Put a newly spawned sphere on screen, for renderers that keep something per sphere (e.g. a node)
+     * @param body the new sphere
+     */
+    void show(NewSphere body);
+
+    /**
+     * Put many newly spawned spheres on screen at once, for renderers that keep something per sphere
+     * @param bodies the new spheres
+     */
+    default void showAll(List<NewSphere> bodies) {
+        for (NewSphere body : bodies) {
+            show(body);
+        }
+    }
+
+    /**
+     * Take a deleted sphere off the screen, for renderers that keep something per sphere.
+     * Spheres are kept in the same order as in the world, so the last one takes the deleted one's place, like in the world
+     * @param body the deleted sphere
+     * @param index position of the sphere among those shown
+     */
+    void hide(NewSphere body, int index);
+
+    /**
+     * Called once per pulse before the spheres are drawn
+     */
+    void begin();
+
+    /**
+     * Draw one sphere at its position for this pulse
+     * @param body sphere to draw
+     * @param x centre of the sphere on the X-axis
+     * @param y centre of the sphere on the Y-axis
+     * @param radius radius of the sphere
+     * @param colour colour of the sphere
+     */
+    void draw(NewSphere body, double x, double y, double radius, Color colour);
+
+    /**
+     * Called once per pulse after every sphere has been drawn
+     */
+    void end();
+
+    /**
+     * Erase every sphere, for when the world is cleared and no more pulses will come until a sphere is added
+     */
+    void clear();
+
+    /**
+     * Create the renderer matching a given name
+     * @param name "nodes", "mesh" or "canvas". Anything else falls back to nodes
+     * @return the renderer
+     */
+    static SphereRenderer fromName(String name) {
+        if ("canvas".equalsIgnoreCase(name)) {
+            return new CanvasRenderer();
+        } else if ("mesh".equalsIgnoreCase(name)) {
+            return new MeshRenderer();
+        }
+        return new NodeRenderer();
+    }
+
+    /**
+     * Show the "Delete" menu for the sphere under the cursor. Every renderer puts a single handler on its layer rather than one per sphere.
+     * The world is asked which sphere was drawn there on the last pulse
+     * @param menu menu to show. Reused, so that only one is ever showing
+     * @param owner node the renderer draws onto, placed at the origin of the canvas
+     * @param contextMenuEvent right-click on the owner
+     */
+    static void showDeleteMenu(ContextMenu menu, Node owner, ContextMenuEvent contextMenuEvent) {
+        NewSphere body = Bridge.getCanvasController().getWorld().pick(contextMenuEvent.getX(), contextMenuEvent.getY());
+        if (body == null || menu.isShowing()) {
+            return;
+        }
+        MenuItem delete = new MenuItem("Delete");
+        delete.setOnAction(actionEvent -> body.delete());
+        menu.getItems().setAll(delete);
+        menu.show(owner, contextMenuEvent.getScreenX(), contextMenuEvent.getScreenY());
+    }
+}
@@ -0,0 +1,25 @@
+package com.bounce;
+
+/**
+ * Records how long after launch each step of start-up happens, so that a slow start can be measured rather than guessed at.
+ * Printed to the console as it goes when launched with -Dbounce.startupTimeline=true, and silent otherwise.
+ * Steps may be marked from any thread; the database connection, for one, is made in the background and may finish after the window is shown.
+ */
+public class StartupTimeline {
+    private static final boolean ENABLED = Boolean.getBoolean("bounce.startupTimeline");
+    // System.nanoTime() when the class was first used, which is the first thing Launcher does
+    private static final long START = System.nanoTime();
+
+    private StartupTimeline() {
+    }
+
+    /**
+     * Record that a step of start-up has just finished
+     * @param step what happened
+     */
+    public static void mark(String step) {
+        if (ENABLED) {
+            System.out.printf("[startup] %8.1f ms  %s (%s)%n", (System.nanoTime() - START) / 1e6, step, Thread.currentThread().getName());
+        }
+    }
+}
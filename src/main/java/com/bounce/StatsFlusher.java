@@ -0,0 +1,232 @@
+package com.bounce;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the session statistics to the database in the background, a little at a time, instead of all at once on exit.
+ * Whatever is counted is only added to the pending deltas here, which never blocks. Every JOURNAL_INTERVAL the database thread
+ * takes the deltas and writes them to the local journal (see StatsJournal), and every FLUSH_INTERVAL it sends whatever the journal holds
+ * to the database, all three counters in one statement, skipping the query altogether if nothing changed.
+ * Whatever does not reach the database (unreachable, timed out, app closed, ...) stays in the journal, and is sent by a later flush or session.
+ * If the journal cannot be used (e.g. another instance of the app has it), deltas are sent straight from memory instead,
+ * and those that fail to reach the database are put back for the next flush.
+ * Previously the counters were only sent by the "Exit" button, on the FX thread, in three queries over a brand-new connection,
+ * so the app hung on exit while the database was slow, and a session closed any other way was lost altogether.
+ * On exit, the last deltas are journaled straight away by the thread exiting, rather than queued behind whatever the database thread is stuck on.
+ */
+public class StatsFlusher {
+    /* How often the deltas are flushed. ClearDB allows 3600 queries an hour, shared by every user,
+    so one query a minute per running app leaves plenty of room. Can be changed with -Dbounce.flushInterval=<seconds> */
+    private static final long FLUSH_INTERVAL = Math.max(1, Long.getLong("bounce.flushInterval", 60));
+    // How often the deltas are written to the journal. Bounds what is lost if the app is killed
+    private static final long JOURNAL_INTERVAL = Math.min(5, FLUSH_INTERVAL);
+    // Longest the "Exit" button waits for the final flush before giving up on it. Can be changed with -Dbounce.exitTimeout=<milliseconds>
+    private static final long EXIT_TIMEOUT = Math.max(0, Long.getLong("bounce.exitTimeout", 3000));
+    /* How often delta rows are rolled up, with -Dbounce.statsStore=append. Every client tries, so the more clients, the more often it happens;
+    a client that finds another one rolling up skips its turn. Can be changed with -Dbounce.rollupInterval=<seconds> */
+    private static final long ROLLUP_INTERVAL = Math.max(1, Long.getLong("bounce.rollupInterval", 600));
+    // Where the journal is kept. Can be changed with -Dbounce.journal=<path>
+    private static final Path JOURNAL_PATH = Path.of(System.getProperty("bounce.journal",
+            Path.of(System.getProperty("user.home"), ".bounce", "stats.journal").toString()));
+
+    // Sends journal entries to the remote database, reconnecting if need be
+    private static final StatsJournal.Sink DATABASE = (journal, from, to, spheres, sphereCollisions, wallCollisions) -> {
+        Connection connection = Database.connected();
+        return connection != null ? Database.applyBatch(connection, journal, from, to, spheres, sphereCollisions, wallCollisions) : -1;
+    };
+
+    // Amounts counted since they were last journaled (or flushed, without a journal)
+    private static final AtomicLong pendingSpheres = new AtomicLong();
+    private static final AtomicLong pendingSphereCollisions = new AtomicLong();
+    private static final AtomicLong pendingWallCollisions = new AtomicLong();
+    // Amounts counted over the whole session
+    private static final AtomicLong recordedSpheres = new AtomicLong();
+    private static final AtomicLong recordedSphereCollisions = new AtomicLong();
+    private static final AtomicLong recordedWallCollisions = new AtomicLong();
+    // Periodic flush, once started
+    private static ScheduledFuture<?> schedule = null;
+    // Local journal, or null if it could not be opened (or is not open yet). Opened and closed by the database thread, written to by stop() too
+    private static volatile StatsJournal journal = null;
+    // System.nanoTime() of the last flush, and rollup. Only touched by the database thread
+    private static long lastFlush;
+    private static long lastRollup;
+
+    private StatsFlusher() {
+    }
+
+    /**
+     * Open the journal and start flushing periodically, unless already started.
+     * Whatever previous sessions left in the journal is sent as soon as the database can be reached
+     */
+    public static synchronized void start() {
+        if (schedule == null) {
+            Database.executor().execute(() -> {
+                try {
+                    journal = new StatsJournal(JOURNAL_PATH);
+                } catch (IOException e) {
+                    System.err.println("Statistics journal unavailable, sending statistics straight to the database: " + e.getMessage());
+                }
+                // Due straight away, in case the journal holds entries of previous sessions
+                lastFlush = System.nanoTime() - TimeUnit.SECONDS.toNanos(FLUSH_INTERVAL);
+                lastRollup = System.nanoTime();
+            });
+            schedule = Database.schedule(StatsFlusher::tick, JOURNAL_INTERVAL, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Count statistics to be sent with the next flush. Never blocks; safe to call from any thread
+     * @param spheres amount of spheres generated
+     * @param sphereCollisions amount of sphere-to-sphere collisions
+     * @param wallCollisions amount of sphere-to-wall collisions
+     */
+    public static void record(long spheres, long sphereCollisions, long wallCollisions) {
+        if (spheres != 0) {
+            pendingSpheres.addAndGet(spheres);
+            recordedSpheres.addAndGet(spheres);
+        }
+        if (sphereCollisions != 0) {
+            pendingSphereCollisions.addAndGet(sphereCollisions);
+            recordedSphereCollisions.addAndGet(sphereCollisions);
+        }
+        if (wallCollisions != 0) {
+            pendingWallCollisions.addAndGet(wallCollisions);
+            recordedWallCollisions.addAndGet(wallCollisions);
+        }
+    }
+
+    /**
+     * @return spheres, sphere-to-sphere collisions and sphere-to-wall collisions counted over the whole session, in that order
+     */
+    public static long[] recorded() {
+        return new long[] {recordedSpheres.get(), recordedSphereCollisions.get(), recordedWallCollisions.get()};
+    }
+
+    /**
+     * Amounts counted, this session or any before, that are not in the database yet. Must be called on the database thread,
+     * as anything being flushed at the time would be in neither
+     * @return spheres, sphere-to-sphere collisions and sphere-to-wall collisions, in that order
+     */
+    static long[] unsent() {
+        StatsJournal current = journal;
+        long[] unsent = current != null ? current.unsent() : new long[3];
+        unsent[0] += pendingSpheres.get();
+        unsent[1] += pendingSphereCollisions.get();
+        unsent[2] += pendingWallCollisions.get();
+        return unsent;
+    }
+
+    /**
+     * Flush whatever is left, stop flushing, and close the journal and the connection, waiting at most EXIT_TIMEOUT for all of it.
+     * Meant to be called right before exiting; if the database is too slow, whatever was not flushed yet waits in the journal for the next session
+     * @return true if the final flush made it to the database in time
+     */
+    public static boolean stop() {
+        synchronized (StatsFlusher.class) {
+            if (schedule != null) {
+                schedule.cancel(false);
+            }
+        }
+        // Journal what is left on this thread: the database thread may be busy with a slow database for longer than EXIT_TIMEOUT
+        journalPending();
+        CompletableFuture<Boolean> last = CompletableFuture.supplyAsync(() -> {
+            boolean flushed = flush();
+            StatsJournal current = journal;
+            if (current != null) {
+                journal = null;
+                try {
+                    current.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            Database.closeConnection();
+            return flushed;
+        }, Database.executor());
+        try {
+            return last.get(EXIT_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            System.err.println("Statistics could not be sent to the database in time; whatever made it into the journal is sent next time");
+            return false;
+        }
+    }
+
+    /**
+     * Journal the pending deltas, flush them if FLUSH_INTERVAL has passed since the last flush,
+     * and roll up delta rows if ROLLUP_INTERVAL has passed since the last rollup. Runs on the database thread
+     */
+    private static void tick() {
+        journalPending();
+        if (System.nanoTime() - lastFlush >= TimeUnit.SECONDS.toNanos(FLUSH_INTERVAL)) {
+            flush();
+        }
+        if (Database.isAppendOnly() && System.nanoTime() - lastRollup >= TimeUnit.SECONDS.toNanos(ROLLUP_INTERVAL)) {
+            lastRollup = System.nanoTime();
+            Connection connection = Database.connected();
+            if (connection != null) {
+                Database.rollup(connection);
+            }
+        }
+    }
+
+    /**
+     * Send whatever is pending to the database. Runs on the database thread
+     * @return true if there was nothing to send or it was sent, false if it has to be tried again
+     */
+    private static boolean flush() {
+        lastFlush = System.nanoTime();
+        StatsJournal current = journal;
+        if (current != null) {
+            journalPending();
+            return current.send(DATABASE);
+        }
+        long spheres = pendingSpheres.getAndSet(0);
+        long sphereCollisions = pendingSphereCollisions.getAndSet(0);
+        long wallCollisions = pendingWallCollisions.getAndSet(0);
+        if (spheres == 0 && sphereCollisions == 0 && wallCollisions == 0) {
+            return true;
+        }
+        Connection connection = Database.connected();
+        if (connection != null && Database.updateCounts(connection, spheres, sphereCollisions, wallCollisions)) {
+            return true;
+        }
+        /* Put them back for the next flush. A statement that timed out may still have gone through on the server's side,
+        in which case these are counted twice; better than losing them every time the database is slow */
+        requeue(spheres, sphereCollisions, wallCollisions);
+        return false;
+    }
+
+    /**
+     * Move the pending deltas into the journal, if there is one. If the journal cannot take them, they stay pending
+     */
+    private static void journalPending() {
+        StatsJournal current = journal;
+        if (current == null) {
+            return;
+        }
+        long spheres = pendingSpheres.getAndSet(0);
+        long sphereCollisions = pendingSphereCollisions.getAndSet(0);
+        long wallCollisions = pendingWallCollisions.getAndSet(0);
+        try {
+            current.append(spheres, sphereCollisions, wallCollisions);
+        } catch (IOException e) {
+            e.printStackTrace();
+            requeue(spheres, sphereCollisions, wallCollisions);
+        }
+    }
+
+    /**
+     * Put deltas that could not be journaled or sent back with the pending ones. Unlike record, they were counted already
+     */
+    private static void requeue(long spheres, long sphereCollisions, long wallCollisions) {
+        pendingSpheres.addAndGet(spheres);
+        pendingSphereCollisions.addAndGet(sphereCollisions);
+        pendingWallCollisions.addAndGet(wallCollisions);
+    }
+}
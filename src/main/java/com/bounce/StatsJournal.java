@@ -0,0 +1,250 @@
+package com.bounce;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Local, append-only journal of the session statistics not yet in the database, so that none are lost while the database is unreachable
+ * or when the app is closed before they could be sent.
+ * The file is memory-mapped, and every entry carries a CRC32, so an entry half-written when the app died is recognized and dropped on the next start
+ * instead of being replayed as garbage. Entries are numbered in order; the database remembers, for every journal, the number of the last entry
+ * it applied, and only applies a batch that starts right after it, in the same statement that adds the counts. So a batch that timed out but went through
+ * anyway is never applied twice, and a batch that did not go through is simply sent again. Once everything in the journal is applied it is compacted,
+ * i.e. started over from the beginning of the file.
+ * Only one instance of the app can use the journal at a time. Thread-safe; the sink is called without holding the journal's lock,
+ * so that entries can still be written (e.g. on exit) while a slow database is sending a batch.
+ *
+ * Layout: a header (magic, version, journal ID, number of the last applied entry), followed by fixed-size entries
+ * (number, spheres, sphere-to-sphere collisions, sphere-to-wall collisions, CRC32 of all four).
+ */
+public class StatsJournal implements Closeable {
+
+    /**
+     * Where journal entries are sent; the database, or anything standing in for it
+     */
+    public interface Sink {
+        /**
+         * Add a batch of entries to the global counts, unless they are there already
+         * @param journal ID of the journal the entries come from
+         * @param from number of the last entry applied before the batch, as far as the journal knows
+         * @param to number of the last entry in the batch
+         * @param spheres spheres generated over the whole batch
+         * @param sphereCollisions sphere-to-sphere collisions over the whole batch
+         * @param wallCollisions sphere-to-wall collisions over the whole batch
+         * @return number of the last entry applied, as far as the sink knows, after the attempt; or -1 if it could not be reached
+         */
+        long apply(UUID journal, long from, long to, long spheres, long sphereCollisions, long wallCollisions);
+    }
+
+    private static final int MAGIC = 0x424E434A;
+    private static final int VERSION = 1;
+    // Header offsets
+    private static final int ID_MOST = 8;
+    private static final int ID_LEAST = 16;
+    private static final int APPLIED = 24;
+    private static final int HEADER_SIZE = 32;
+    // Entry offsets
+    private static final int SEQ = 0;
+    private static final int SPHERES = 8;
+    private static final int SPHERE_COLLISIONS = 16;
+    private static final int WALL_COLLISIONS = 24;
+    private static final int CRC = 32;
+    private static final int ENTRY_SIZE = 40;
+    // Size of a new journal. Enough for a hundred entries; grows if the database stays unreachable for longer than that
+    private static final int INITIAL_SIZE = HEADER_SIZE + 100 * ENTRY_SIZE;
+
+    private final FileChannel channel;
+    private final FileLock lock;
+    private MappedByteBuffer buffer;
+    private final UUID id;
+    // Number of the last entry applied to the database
+    private long applied;
+    // Number of the last entry written
+    private long last;
+    // Offset the next entry is written at
+    private int tail;
+    // Whether the journal was closed, after which nothing more can be written
+    private boolean closed = false;
+
+    /**
+     * Open the journal at the given path, creating it if need be, and find the entries left from previous sessions
+     * @param path file to keep the journal in
+     * @throws IOException if the file cannot be used, e.g. another instance of the app is using it
+     */
+    public StatsJournal(Path path) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock locked;
+        try {
+            locked = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Already open in this very process
+            locked = null;
+        }
+        lock = locked;
+        if (lock == null) {
+            channel.close();
+            throw new IOException(path + " is in use by another instance");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size(), INITIAL_SIZE));
+
+        if (buffer.getInt(0) != MAGIC) {
+            // New (or unrecognizable) journal. Start over with a new ID, as whatever the database knows of the old one no longer applies
+            UUID newId = UUID.randomUUID();
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(ID_MOST, newId.getMostSignificantBits());
+            buffer.putLong(ID_LEAST, newId.getLeastSignificantBits());
+            buffer.putLong(APPLIED, 0);
+            clearEntry(HEADER_SIZE);
+            buffer.force();
+        } else if (buffer.getInt(4) != VERSION) {
+            close();
+            throw new IOException(path + " was written by another version of the app");
+        }
+        id = new UUID(buffer.getLong(ID_MOST), buffer.getLong(ID_LEAST));
+        applied = buffer.getLong(APPLIED);
+
+        /* Replay: entries run up to the first one that is half-written (bad checksum) or left over from before the last compaction
+        (numbered lower than the one before it, as numbers only ever go up) */
+        last = 0;
+        tail = HEADER_SIZE;
+        while (tail + ENTRY_SIZE <= buffer.capacity()) {
+            long seq = buffer.getLong(tail + SEQ);
+            if (seq <= last || buffer.getInt(tail + CRC) != checksum(tail)) {
+                break;
+            }
+            last = seq;
+            tail += ENTRY_SIZE;
+        }
+        last = Math.max(last, applied);
+    }
+
+    /**
+     * Write an entry. Nothing is written if all amounts are zero
+     * @param spheres spheres generated
+     * @param sphereCollisions sphere-to-sphere collisions
+     * @param wallCollisions sphere-to-wall collisions
+     * @throws IOException if the journal could not grow, or was closed
+     */
+    public synchronized void append(long spheres, long sphereCollisions, long wallCollisions) throws IOException {
+        if (spheres == 0 && sphereCollisions == 0 && wallCollisions == 0) {
+            return;
+        }
+        if (closed) {
+            throw new IOException("Journal closed");
+        }
+        if (tail + ENTRY_SIZE > buffer.capacity()) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) buffer.capacity() * 2);
+        }
+        buffer.putLong(tail + SEQ, last + 1);
+        buffer.putLong(tail + SPHERES, spheres);
+        buffer.putLong(tail + SPHERE_COLLISIONS, sphereCollisions);
+        buffer.putLong(tail + WALL_COLLISIONS, wallCollisions);
+        // Checksum last, so that the entry is only valid once everything else is in
+        buffer.putInt(tail + CRC, checksum(tail));
+        buffer.force();
+        last++;
+        tail += ENTRY_SIZE;
+    }
+
+    /**
+     * @return true if there are entries the database does not have yet
+     */
+    public synchronized boolean hasUnsent() {
+        return last > applied;
+    }
+
+    /**
+     * Send every entry the database does not have yet, in one batch, and compact the journal if that was all of them
+     * @param sink where to send them
+     * @return true if the journal is now empty
+     */
+    public boolean send(Sink sink) {
+        long from;
+        long to;
+        long[] unsent;
+        synchronized (this) {
+            if (!hasUnsent()) {
+                return true;
+            }
+            from = applied;
+            to = last;
+            unsent = unsent();
+        }
+        long result = sink.apply(id, from, to, unsent[0], unsent[1], unsent[2]);
+        synchronized (this) {
+            if (result > applied) {
+                /* Anything below the last entry of the batch means an earlier batch went through after all, without us hearing of it.
+                The rest is sent with the next batch */
+                setApplied(Math.min(result, to));
+            }
+            // Entries written while the batch was being sent wait for the next one
+            if (applied < last || closed) {
+                return applied == last;
+            }
+            // Compact. Entries before the (cleared) first one are ignored from now on, even if the app dies right after
+            clearEntry(HEADER_SIZE);
+            buffer.force();
+            tail = HEADER_SIZE;
+            return true;
+        }
+    }
+
+    /**
+     * @return spheres, sphere-to-sphere collisions and sphere-to-wall collisions the database does not have yet, in that order
+     */
+    public synchronized long[] unsent() {
+        long[] unsent = new long[3];
+        for (int offset = HEADER_SIZE; offset < tail; offset += ENTRY_SIZE) {
+            if (buffer.getLong(offset + SEQ) > applied) {
+                unsent[0] += buffer.getLong(offset + SPHERES);
+                unsent[1] += buffer.getLong(offset + SPHERE_COLLISIONS);
+                unsent[2] += buffer.getLong(offset + WALL_COLLISIONS);
+            }
+        }
+        return unsent;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer.force();
+        if (lock != null && lock.isValid()) {
+            lock.release();
+        }
+        channel.close();
+    }
+
+    private void setApplied(long seq) {
+        applied = seq;
+        buffer.putLong(APPLIED, seq);
+        buffer.force();
+    }
+
+    private void clearEntry(int offset) {
+        for (int i = 0; i < ENTRY_SIZE; i += 8) {
+            buffer.putLong(offset + i, 0);
+        }
+    }
+
+    private int checksum(int offset) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset, CRC));
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,87 @@
+package com.bounce;
+
+import java.sql.Connection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Global statistics, cached in front of the database so that the Stats tab can show live values without ever waiting on it,
+ * and without spending more of the ClearDB query budget than one query every TTL.
+ * Stale-while-revalidate: callers keep showing whatever was fetched last, however old, while asking for fresh values. Once those are older
+ * than TTL, that starts one fetch in the background (never more than one at a time), whose result replaces them.
+ * A failed fetch keeps the old values, and counts as an attempt, so an unreachable database is not asked again before TTL either.
+ */
+public class StatsRepository {
+    // How long fetched values are considered fresh. Can be changed with -Dbounce.statsTtl=<seconds>
+    private static final long TTL = TimeUnit.SECONDS.toNanos(Math.max(1, Long.getLong("bounce.statsTtl", 60)));
+
+    /**
+     * Counts of everyone but this session (other users, and earlier sessions of this one), as of a fetch. Immutable.
+     * Not the global counts themselves: those keep growing with this session's counts after the fetch, which have to be added to get them
+     */
+    public static final class Snapshot {
+        private final long othersSphereCount;
+        private final long othersSphereCollisionCount;
+        private final long othersWallCollisionCount;
+
+        private Snapshot(long othersSphereCount, long othersSphereCollisionCount, long othersWallCollisionCount) {
+            this.othersSphereCount = othersSphereCount;
+            this.othersSphereCollisionCount = othersSphereCollisionCount;
+            this.othersWallCollisionCount = othersWallCollisionCount;
+        }
+
+        // Getters
+        public long getOthersSphereCount() {
+            return othersSphereCount;
+        }
+
+        public long getOthersSphereCollisionCount() {
+            return othersSphereCollisionCount;
+        }
+
+        public long getOthersWallCollisionCount() {
+            return othersWallCollisionCount;
+        }
+    }
+
+    // Last values fetched, or null if none yet. Only touched by the database thread
+    private static Snapshot latest = null;
+    // Fetch in progress or done last, or null if none yet
+    private static CompletableFuture<Snapshot> fetch = null;
+    // System.nanoTime() of the last fetch attempt
+    private static long attempted;
+
+    private StatsRepository() {
+    }
+
+    /**
+     * Fetch fresh values in the background, unless the last ones are still fresh or a fetch is in progress already
+     * @return the fresh values once fetched; the last values if they are still fresh, or could not be fetched (null if there are none)
+     */
+    public static synchronized CompletableFuture<Snapshot> revalidate() {
+        if (fetch == null || (fetch.isDone() && System.nanoTime() - attempted >= TTL)) {
+            attempted = System.nanoTime();
+            fetch = Database.query(connection -> fetch());
+        }
+        return fetch;
+    }
+
+    /**
+     * Fetch the global counts, all three in one query, and take this session's counts out of them. Runs on the database thread,
+     * which also flushes the session counts, so none can be on their way to the database meanwhile
+     * @return the fetched values, or the last ones if they could not be fetched
+     */
+    private static Snapshot fetch() {
+        // Reconnects if the database could not be reached before
+        Connection connection = Database.connected();
+        long[] counts = connection != null ? Database.retrieveCounts(connection) : null;
+        if (counts == null) {
+            return latest;
+        }
+        // Global counts only include what was sent so far; the rest is still with the flusher
+        long[] unsent = StatsFlusher.unsent();
+        long[] recorded = StatsFlusher.recorded();
+        latest = new Snapshot(counts[0] + unsent[0] - recorded[0], counts[1] + unsent[1] - recorded[1], counts[2] + unsent[2] - recorded[2]);
+        return latest;
+    }
+}
@@ -0,0 +1,139 @@
+package com.bounce;
+
+/**
+ * Sweep-and-prune broadphase along the X-axis.
+ * Keeps every sphere sorted by the left edge of its interval on the X-axis, and only spheres whose intervals overlap are candidates.
+ * Spheres move at most a few pixels per frame, so the sorted order barely changes between frames;
+ * re-sorting it with insertion sort every frame is therefore close to linear, instead of the n log n of sorting from scratch.
+ * Unlike the grid, it does not depend on a fixed cell size, which suits scenes mixing very small and very large spheres.
+ */
+public class SweepAndPrune implements Broadphase {
+    // Sphere indices, sorted by the left edge of their interval. Kept between frames
+    private int[] order = new int[0];
+    // Amount of spheres in "order"
+    private int sorted = 0;
+    // Left and right edge of every sphere's interval on the X-axis, indexed by sphere
+    private double[] minX = new double[0];
+    private double[] maxX = new double[0];
+    // Radius of every sphere plus half the margin, copied out of the store once per frame
+    private double[] radius = new double[0];
+    // Scratch buffer for the full sort
+    private int[] buffer = new int[0];
+    // Above this many new spheres in one frame, sorting from scratch beats inserting them one by one
+    private static final int FULL_SORT_THRESHOLD = 64;
+
+    @Override
+    public void findPairs(double[] x, double[] y, BodyStore store, double margin, int count, PairList out) {
+        if (minX.length < count) {
+            minX = new double[Math.max(count, minX.length * 2)];
+            maxX = new double[minX.length];
+            radius = new double[minX.length];
+            int[] grown = new int[minX.length];
+            System.arraycopy(order, 0, grown, 0, sorted);
+            order = grown;
+        }
+        for (int i = 0; i < count; i++) {
+            // Half the margin on each sphere, so two intervals overlap whenever the spheres are within the margin of each other
+            radius[i] = store.getRadius(i) + margin * 0.5;
+            minX[i] = x[i] - radius[i];
+            maxX[i] = x[i] + radius[i];
+        }
+        // New spheres are always appended at the end of the world, so they can be appended to the order and sorted into place
+        int added = count - sorted;
+        for (int i = sorted; i < count; i++) {
+            order[i] = i;
+        }
+        sorted = count;
+        if (added > FULL_SORT_THRESHOLD) {
+            mergeSort();
+        } else {
+            insertionSort();
+        }
+
+        // Sweep: every sphere is tested against the following ones until their left edge passes its right edge
+        for (int k = 0; k < count; k++) {
+            int a = order[k];
+            for (int k2 = k + 1; k2 < count && minX[order[k2]] <= maxX[a]; k2++) {
+                int b = order[k2];
+                // Prune on the Y-axis too before handing the pair over to the narrowphase
+                if (Math.abs(y[a] - y[b]) <= radius[a] + radius[b]) {
+                    out.add(Math.min(a, b), Math.max(a, b));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        sorted = 0;
+    }
+
+    /**
+     * Drop the deleted sphere from the sorted order and rename the last sphere to its index, in one pass.
+     * The order stays sorted, so the next frame does not have to sort every sphere from scratch
+     */
+    @Override
+    public void removed(int index, int last) {
+        if (last >= sorted) {
+            // The last sphere was added after the previous frame and is not in the order yet
+            reset();
+            return;
+        }
+        int kept = 0;
+        for (int k = 0; k < sorted; k++) {
+            int i = order[k];
+            if (i != index) {
+                order[kept++] = i == last ? index : i;
+            }
+        }
+        sorted = kept;
+    }
+
+    /**
+     * Insertion sort of "order" by left edge. Close to linear when the order is already almost sorted, which is the usual case
+     */
+    private void insertionSort() {
+        for (int k = 1; k < sorted; k++) {
+            int index = order[k];
+            double key = minX[index];
+            int k2 = k - 1;
+            while (k2 >= 0 && minX[order[k2]] > key) {
+                order[k2 + 1] = order[k2];
+                k2--;
+            }
+            order[k2 + 1] = index;
+        }
+    }
+
+    /**
+     * Bottom-up merge sort of "order" by left edge. Used when the order has to be rebuilt, where insertion sort would be quadratic
+     */
+    private void mergeSort() {
+        if (buffer.length < sorted) {
+            buffer = new int[order.length];
+        }
+        int[] from = order;
+        int[] to = buffer;
+        for (int width = 1; width < sorted; width *= 2) {
+            for (int start = 0; start < sorted; start += width * 2) {
+                int middle = Math.min(start + width, sorted);
+                int end = Math.min(start + width * 2, sorted);
+                int left = start;
+                int right = middle;
+                for (int k = start; k < end; k++) {
+                    if (left < middle && (right >= end || minX[from[left]] <= minX[from[right]])) {
+                        to[k] = from[left++];
+                    } else {
+                        to[k] = from[right++];
+                    }
+                }
+            }
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+        if (from != order) {
+            System.arraycopy(from, 0, order, 0, sorted);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.bounce;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Database in both modes, each test against a fresh in-memory H2 database standing in for MySQL
+ */
+class DatabaseTest {
+    // Tells the databases of the tests apart
+    private static int databases = 0;
+
+    private Connection connection;
+
+    /**
+     * MySQL's named locks, which H2 does not have. One lock for the whole database, taken by whoever calls GET_LOCK first
+     */
+    public static class Locks {
+        static boolean held = false;
+
+        public static int getLock(String name, int timeout) {
+            if (held) {
+                return 0;
+            }
+            held = true;
+            return 1;
+        }
+
+        public static int releaseLock(String name) {
+            held = false;
+            return 1;
+        }
+    }
+
+    /**
+     * Connect to a new database holding nothing but the statistics row, as deployed before journals existed
+     * @param append whether counts are stored as rows of deltas
+     */
+    private void connect(boolean append) throws SQLException {
+        // Dropped once its last connection is closed, i.e. after the test
+        Database.useDatabase("jdbc:h2:mem:bounce" + ++databases + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE", append);
+        connection = Database.getConnection();
+        assertNotNull(connection);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE ALIAS GET_LOCK FOR 'com.bounce.DatabaseTest$Locks.getLock'");
+            statement.execute("CREATE ALIAS RELEASE_LOCK FOR 'com.bounce.DatabaseTest$Locks.releaseLock'");
+            statement.execute("CREATE TABLE statistics (sphere_count BIGINT NOT NULL, sphere_collision_count BIGINT NOT NULL, "
+                    + "wall_collision_count BIGINT NOT NULL)");
+            statement.execute("INSERT INTO statistics VALUES (100, 10, 1)");
+        }
+        Locks.held = false;
+    }
+
+    @AfterEach
+    void disconnect() {
+        Database.closeConnection();
+    }
+
+    private long count(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); var resultSet = statement.executeQuery(sql)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    @Test
+    void firstBatchRegistersItsJournal() throws SQLException {
+        connect(false);
+        UUID journal = UUID.randomUUID();
+        assertEquals(2, Database.applyBatch(connection, journal, 0, 2, 5, 3, 1));
+        assertArrayEquals(new long[] {105, 13, 2}, Database.retrieveCounts(connection));
+        assertEquals(2, count("SELECT last_seq FROM statistics_journals WHERE journal_id = '" + journal + "'"));
+    }
+
+    @Test
+    void batchResentAfterLostAnswerIsNotAppliedTwice() throws SQLException {
+        connect(false);
+        UUID journal = UUID.randomUUID();
+        assertEquals(2, Database.applyBatch(connection, journal, 0, 2, 5, 0, 0));
+        // The same batch again, as if its answer was lost: the database answers with what it has, and changes nothing
+        assertEquals(2, Database.applyBatch(connection, journal, 0, 2, 5, 0, 0));
+        assertArrayEquals(new long[] {105, 10, 1}, Database.retrieveCounts(connection));
+        assertEquals(3, Database.applyBatch(connection, journal, 2, 3, 1, 0, 0));
+        assertArrayEquals(new long[] {106, 10, 1}, Database.retrieveCounts(connection));
+    }
+
+    @Test
+    void journalsAreTrackedSeparately() throws SQLException {
+        connect(false);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        assertEquals(4, Database.applyBatch(connection, first, 0, 4, 5, 0, 0));
+        // Numbered from the start again, but by another journal, so nothing is mistaken for a resend
+        assertEquals(1, Database.applyBatch(connection, second, 0, 1, 2, 0, 0));
+        assertEquals(4, Database.applyBatch(connection, first, 0, 4, 5, 0, 0));
+        assertArrayEquals(new long[] {107, 10, 1}, Database.retrieveCounts(connection));
+        assertEquals(2, count("SELECT COUNT(*) FROM statistics_journals"));
+    }
+
+    @Test
+    void updatesWithoutJournalAreAdded() throws SQLException {
+        connect(false);
+        assertTrue(Database.updateCounts(connection, 5, 3, 1));
+        assertArrayEquals(new long[] {105, 13, 2}, Database.retrieveCounts(connection));
+        // Nothing to roll up in this mode
+        assertEquals(0, Database.rollup(connection));
+    }
+
+    @Test
+    void updatesAreCountedBeforeAndAfterRollup() throws SQLException {
+        connect(true);
+        assertTrue(Database.updateCounts(connection, 5, 3, 1));
+        assertTrue(Database.updateCounts(connection, 2, 0, 4));
+        assertArrayEquals(new long[] {107, 13, 6}, Database.retrieveCounts(connection));
+        assertEquals(100, count("SELECT sphere_count FROM statistics"));
+
+        assertEquals(2, Database.rollup(connection));
+        assertEquals(0, count("SELECT COUNT(*) FROM statistics_deltas"));
+        assertEquals(107, count("SELECT sphere_count FROM statistics"));
+        assertArrayEquals(new long[] {107, 13, 6}, Database.retrieveCounts(connection));
+        assertEquals(0, Database.rollup(connection));
+        assertFalse(Locks.held);
+    }
+
+    @Test
+    void rolledUpBatchesAreStillNotAppliedTwice() throws SQLException {
+        connect(true);
+        UUID journal = UUID.randomUUID();
+        assertEquals(2, Database.applyBatch(connection, journal, 0, 2, 5, 0, 0));
+        assertEquals(1, Database.rollup(connection));
+        assertEquals(2, count("SELECT last_seq FROM statistics_journals"));
+        // The same batch again, as if its answer was lost: the database already has it
+        assertEquals(2, Database.applyBatch(connection, journal, 0, 2, 5, 0, 0));
+        assertEquals(4, Database.applyBatch(connection, journal, 2, 4, 1, 0, 0));
+        assertArrayEquals(new long[] {106, 10, 1}, Database.retrieveCounts(connection));
+    }
+
+    @Test
+    void rollupIsSkippedWhileAnotherClientRollsUp() throws SQLException {
+        connect(true);
+        assertTrue(Database.updateCounts(connection, 5, 0, 0));
+        Locks.held = true;
+        assertEquals(0, Database.rollup(connection));
+        assertEquals(1, count("SELECT COUNT(*) FROM statistics_deltas"));
+        Locks.held = false;
+        assertEquals(1, Database.rollup(connection));
+        assertArrayEquals(new long[] {105, 10, 1}, Database.retrieveCounts(connection));
+    }
+
+    @Test
+    void failedRollupLeavesNothingBehind() throws SQLException {
+        connect(true);
+        assertTrue(Database.updateCounts(connection, 5, 0, 0));
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE statistics RENAME TO statistics_away");
+        }
+        try {
+            assertEquals(-1, Database.rollup(connection));
+        } finally {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("ALTER TABLE statistics_away RENAME TO statistics");
+            }
+        }
+        // Rolled back, and the lock released for the next rollup
+        assertFalse(Locks.held);
+        assertEquals(1, count("SELECT COUNT(*) FROM statistics_deltas"));
+        assertTrue(Database.updateCounts(connection, 1, 0, 0));
+        assertEquals(2, Database.rollup(connection));
+        assertArrayEquals(new long[] {106, 10, 1}, Database.retrieveCounts(connection));
+    }
+}
@@ -0,0 +1,63 @@
+package com.bounce;
+
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.scene.paint.Color;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * SimulationWorld stepped headless, so that runs can be compared bit for bit
+ */
+class SimulationWorldTest {
+    private static final Bounds BOUNDS = new BoundingBox(0, 0, 4000, 2400);
+    // Enough spheres for the parallel mode to actually split the steps, close enough together for plenty of collisions
+    private static final int SPHERES = 5000;
+    private static final int STEPS = 60;
+
+    /**
+     * Spawn the same spheres every time for a given seed, and take STEPS steps
+     */
+    private static double[] run(boolean parallel, long seed) {
+        SimulationWorld world = new SimulationWorld(parallel, BOUNDS);
+        Random random = new Random(seed);
+        Color[] colours = {Color.WHITE, Color.RED, Color.BLUE};
+        ArrayList<NewSphere> bodies = new ArrayList<>(SPHERES);
+        for (int i = 0; i < SPHERES; i++) {
+            double radius = 3 + random.nextDouble() * 7;
+            bodies.add(new NewSphere(radius + random.nextDouble() * (BOUNDS.getWidth() - 2 * radius),
+                    radius + random.nextDouble() * (BOUNDS.getHeight() - 2 * radius),
+                    radius, colours[i % colours.length], random.nextInt(-10, 10), random.nextInt(-10, 10)));
+        }
+        world.spawn(bodies);
+        world.advance(STEPS);
+        return world.copyState();
+    }
+
+    @Test
+    void parallelStepsMatchSingleThreadedStepsBitForBit() {
+        double[] single = run(false, 42);
+        double[] parallel = run(true, 42);
+        assertEquals(SPHERES * 4, single.length);
+        // assertArrayEquals compares doubles by their bits
+        assertArrayEquals(single, parallel);
+    }
+
+    @Test
+    void sameSeedGivesSameRun() {
+        assertArrayEquals(run(true, 7), run(true, 7));
+        assertFalse(Arrays.equals(run(false, 7), run(false, 8)));
+    }
+
+    @Test
+    void emptyWorldCanBeAdvanced() {
+        SimulationWorld world = new SimulationWorld(false, BOUNDS);
+        world.advance(1);
+        assertEquals(0, world.copyState().length);
+    }
+}
@@ -0,0 +1,195 @@
+package com.bounce;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * StatsJournal against a temporary file, with a stand-in for the database
+ */
+class StatsJournalTest {
+    // Same layout as StatsJournal
+    private static final int HEADER_SIZE = 32;
+    private static final int ENTRY_SIZE = 40;
+    private static final int INITIAL_SIZE = HEADER_SIZE + 100 * ENTRY_SIZE;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Stands in for the database: global counts, and the last entry applied of every journal, only applied past it (as Database.applyBatch does)
+     */
+    private static class FakeDatabase implements StatsJournal.Sink {
+        long spheres = 0;
+        long sphereCollisions = 0;
+        long wallCollisions = 0;
+        final Map<UUID, Long> lastSeq = new HashMap<>();
+        // Whether the database cannot be reached at all
+        boolean down = false;
+        // Whether the next batch goes through, but its answer never arrives (e.g. a timeout)
+        boolean loseAnswer = false;
+        int batches = 0;
+
+        @Override
+        public long apply(UUID journal, long from, long to, long spheres, long sphereCollisions, long wallCollisions) {
+            if (down) {
+                return -1;
+            }
+            long last = lastSeq.getOrDefault(journal, from);
+            if (last > from) {
+                return last;
+            }
+            this.spheres += spheres;
+            this.sphereCollisions += sphereCollisions;
+            this.wallCollisions += wallCollisions;
+            lastSeq.put(journal, to);
+            batches++;
+            if (loseAnswer) {
+                loseAnswer = false;
+                return -1;
+            }
+            return to;
+        }
+    }
+
+    private Path journalPath() {
+        return directory.resolve("stats.journal");
+    }
+
+    @Test
+    void entriesAreReplayedAfterReopening() throws IOException {
+        try (StatsJournal journal = new StatsJournal(journalPath())) {
+            journal.append(1, 2, 3);
+            journal.append(4, 5, 6);
+        }
+        FakeDatabase database = new FakeDatabase();
+        try (StatsJournal journal = new StatsJournal(journalPath())) {
+            assertTrue(journal.hasUnsent());
+            assertArrayEquals(new long[] {5, 7, 9}, journal.unsent());
+            assertTrue(journal.send(database));
+            assertFalse(journal.hasUnsent());
+        }
+        assertEquals(5, database.spheres);
+        assertEquals(7, database.sphereCollisions);
+        assertEquals(9, database.wallCollisions);
+    }
+
+    @Test
+    void tornTailEntryIsDroppedOnReplay() throws IOException {
+        try (StatsJournal journal = new StatsJournal(journalPath())) {
+            journal.append(7, 0, 0);
+            journal.append(9, 0, 0);
+        }
+        // Flip a byte in the second entry's counts, as if the app died half way through writing it
+        try (FileChannel channel = FileChannel.open(journalPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {1}), HEADER_SIZE + ENTRY_SIZE + 8);
+        }
+        FakeDatabase database = new FakeDatabase();
+        try (StatsJournal journal = new StatsJournal(journalPath())) {
+            assertArrayEquals(new long[] {7, 0, 0}, journal.unsent());
+            assertTrue(journal.send(database));
+            // The next entry takes the torn one's place
+            journal.append(1, 0, 0);
+            assertTrue(journal.send(database));
+        }
+        assertEquals(8, database.spheres);
+    }
+
+    @Test
+    void compactedEntriesAreIgnoredOnReplay() throws IOException {
+        FakeDatabase database = new FakeDatabase();
+        try (StatsJournal journal = new StatsJournal(journalPath())) {
+            journal.append(1, 0, 0);
+            journal.append(2, 0, 0);
+            journal.append(3, 0, 0);
+            assertTrue(journal.send(database));
+            // Takes the place of the (cleared) first entry; the other two stay in the file behind it, with valid checksums
+            journal.append(10, 0, 0);
+        }
+        try (StatsJournal journal = new StatsJournal(journalPath())) {
+            assertArrayEquals(new long[] {10, 0, 0}, journal.unsent());
+            assertTrue(journal.send(database));
+        }
+        try (StatsJournal journal = new StatsJournal(journalPath())) {
+            assertFalse(journal.hasUnsent());
+        }
+        assertEquals(16, database.spheres);
+    }
+
+    @Test
+    void batchThatWentThroughUnheardIsNotAppliedTwice() throws IOException {
+        FakeDatabase database = new FakeDatabase();
+        try (StatsJournal journal = new StatsJournal(journalPath())) {
+            journal.append(1, 1, 1);
+            journal.append(2, 2, 2);
+            database.loseAnswer = true;
+            assertFalse(journal.send(database));
+            journal.append(4, 4, 4);
+            /* The database answers with the last entry of the earlier batch, below the last one sent now,
+            and applies nothing. The journal catches up, and sends the rest on its own */
+            assertFalse(journal.send(database));
+            assertArrayEquals(new long[] {4, 4, 4}, journal.unsent());
+            assertTrue(journal.send(database));
+        }
+        assertEquals(7, database.spheres);
+        assertEquals(7, database.sphereCollisions);
+        assertEquals(7, database.wallCollisions);
+        assertEquals(2, database.batches);
+    }
+
+    @Test
+    void unreachableDatabaseKeepsEntries() throws IOException {
+        FakeDatabase database = new FakeDatabase();
+        database.down = true;
+        try (StatsJournal journal = new StatsJournal(journalPath())) {
+            journal.append(3, 0, 0);
+            assertFalse(journal.send(database));
+        }
+        database.down = false;
+        try (StatsJournal journal = new StatsJournal(journalPath())) {
+            assertTrue(journal.send(database));
+        }
+        assertEquals(3, database.spheres);
+    }
+
+    @Test
+    void secondInstanceCannotOpenJournal() throws IOException {
+        StatsJournal journal = new StatsJournal(journalPath());
+        try {
+            IOException e = assertThrows(IOException.class, () -> new StatsJournal(journalPath()));
+            assertTrue(e.getMessage().contains("in use"));
+        } finally {
+            journal.close();
+        }
+        // Free again once closed
+        new StatsJournal(journalPath()).close();
+    }
+
+    @Test
+    void journalGrowsPastItsInitialSize() throws IOException {
+        int entries = 3 * (INITIAL_SIZE - HEADER_SIZE) / ENTRY_SIZE;
+        try (StatsJournal journal = new StatsJournal(journalPath())) {
+            for (int i = 1; i <= entries; i++) {
+                journal.append(i, 1, 0);
+            }
+        }
+        assertTrue(Files.size(journalPath()) >= HEADER_SIZE + (long) entries * ENTRY_SIZE);
+        FakeDatabase database = new FakeDatabase();
+        try (StatsJournal journal = new StatsJournal(journalPath())) {
+            assertArrayEquals(new long[] {(long) entries * (entries + 1) / 2, entries, 0}, journal.unsent());
+            assertTrue(journal.send(database));
+        }
+        assertEquals(1, database.batches);
+    }
+}
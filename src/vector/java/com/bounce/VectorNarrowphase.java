@@ -0,0 +1,47 @@
+package com.bounce;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Narrowphase testing a sphere against a whole lane-width block of candidates at once, using the (incubating) Vector API.
+ * Candidates are gathered from the position arrays by index, so a block is 4 candidates with AVX2 and 8 with AVX-512.
+ * Never reference this class directly; Narrowphase.create() only loads it when jdk.incubator.vector is present.
+ * Kept out of src/main/java and only built with the "vector" Maven profile (mvn -Pvector ...), as compiling anything against an incubating module
+ * makes javac warn about it, and javac has no way to turn off just that warning.
+ */
+public class VectorNarrowphase implements Narrowphase {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public int findContacts(double x, double y, double radius, int[] candidates, int from, int to,
+                            double[] otherX, double[] otherY, double[] otherRadius, int[] contacts) {
+        int found = 0;
+        int lanes = SPECIES.length();
+        int k = from;
+        for (; k + lanes <= to; k += lanes) {
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, otherX, 0, candidates, k).sub(x);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, otherY, 0, candidates, k).sub(y);
+            DoubleVector radii = DoubleVector.fromArray(SPECIES, otherRadius, 0, candidates, k).add(radius);
+            // Same operations as SimulationWorld.checkCollision: (dx * dx) + (dy * dy) <= radii * radii
+            VectorMask<Double> hits = dx.mul(dx).add(dy.mul(dy)).compare(VectorOperators.LE, radii.mul(radii));
+            if (hits.anyTrue()) {
+                for (int lane = 0; lane < lanes; lane++) {
+                    if (hits.laneIsSet(lane)) {
+                        contacts[found++] = candidates[k + lane];
+                    }
+                }
+            }
+        }
+        // Whatever does not fill a whole block is tested one by one
+        for (; k < to; k++) {
+            int j = candidates[k];
+            if (SimulationWorld.checkCollision(x, y, radius, otherX[j], otherY[j], otherRadius[j])) {
+                contacts[found++] = j;
+            }
+        }
+        return found;
+    }
+}